@@ -25,6 +25,7 @@
 
 plugins {
     id("org.curioswitch.gradle-curio-server-plugin")
+    id("me.champeau.gradle.jmh")
 }
 
 base {
@@ -44,6 +45,7 @@ dependencies {
 
     implementation("io.sgr:s2-geometry-library-java")
 
+    annotationProcessor(project(":common:server:framework-processor"))
     annotationProcessor("com.google.dagger:dagger-compiler")
     annotationProcessor("org.immutables:value-annotations")
     compileOnly("org.immutables:value")
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.cafemap.server.places;
+
+import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
+
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2RegionCoverer;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import org.curioswitch.cafemap.api.Place;
+import org.curioswitch.common.server.framework.database.DatabaseUtil;
+import org.curioswitch.common.server.framework.database.QueryResultCache;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.jooq.types.ULong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares answering {@code GetPlaces} from the {@link PlaceIndex} with the SQL path, for a
+ * viewport of around 1km in central Tokyo with places spread across Tokyo. The database is mocked
+ * to return the places in the viewport's cells, so the SQL path excludes the time spent in MySQL
+ * and on the network and is a lower bound of its real cost.
+ */
+@State(Scope.Benchmark)
+public class GetPlacesBenchmark {
+
+  private static final S2LatLngRect VIEWPORT =
+      S2LatLngRect.fromPointPair(
+          S2LatLng.fromDegrees(35.655, 139.695), S2LatLng.fromDegrees(35.665, 139.705));
+
+  @Param({"1000", "100000"})
+  private int numPlaces;
+
+  private DSLContext db;
+  private PlaceIndex placeIndex;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    LocalDateTime now = LocalDateTime.now();
+    Result<PlaceRecord> allPlaces = DSL.using(SQLDialect.MYSQL).newResult(PLACE);
+    for (int i = 0; i < numPlaces; i++) {
+      S2LatLng position =
+          S2LatLng.fromDegrees(
+              35.55 + random.nextDouble() * 0.25, 139.55 + random.nextDouble() * 0.35);
+      allPlaces.add(
+          new PlaceRecord(
+              ULong.valueOf(i + 1),
+              "place" + i,
+              position.latDegrees(),
+              position.lngDegrees(),
+              ULong.valueOf(S2CellId.fromLatLng(position).id()),
+              null,
+              "google-place-" + i,
+              now,
+              now));
+    }
+
+    Result<PlaceRecord> viewportPlaces = DSL.using(SQLDialect.MYSQL).newResult(PLACE);
+    var coveredCells = new S2RegionCoverer().getCovering(VIEWPORT);
+    for (PlaceRecord place : allPlaces) {
+      if (coveredCells.contains(new S2CellId(place.getS2Cell().longValue()))) {
+        viewportPlaces.add(place);
+      }
+    }
+
+    db =
+        DSL.using(
+            new DefaultConfiguration()
+                .set(SQLDialect.MYSQL)
+                .set(DatabaseUtil.recordMapperProvider())
+                .set(
+                    new MockConnection(
+                        ctx -> {
+                          var result = ctx.sql().contains("where") ? viewportPlaces : allPlaces;
+                          return new MockResult[] {new MockResult(result.size(), result)};
+                        })));
+
+    placeIndex = new PlaceIndex(db);
+    placeIndex.refresh();
+  }
+
+  @Benchmark
+  public List<Place> index() {
+    return placeIndex.find(VIEWPORT);
+  }
+
+  @Benchmark
+  public List<Place> sql() {
+    return GetPlacesGraph.fetchPlacesFromDatabase(VIEWPORT, db, QueryResultCache.disabled());
+  }
+}
@@ -26,6 +26,7 @@ package org.curioswitch.cafemap.server;
 
 import dagger.Component;
 import dagger.Module;
+import java.io.BufferedOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import javax.inject.Singleton;
@@ -44,11 +45,14 @@ public class CafeMapDumperMain {
   }
 
   public static void main(String[] args) throws Exception {
-    var response = DaggerCafeMapDumperMain_DumperComponent.create().dumper().dumpAllPlaces();
-
-    Files.write(
-        Paths.get("cafe-map/client/unity/Assets/Resources/Secrets/placedb.binarypb"),
-        response.toByteArray());
+    var dumper = DaggerCafeMapDumperMain_DumperComponent.create().dumper();
+
+    try (var output =
+        new BufferedOutputStream(
+            Files.newOutputStream(
+                Paths.get("cafe-map/client/unity/Assets/Resources/Secrets/placedb.binarypb")))) {
+      dumper.writeAllPlaces(output);
+    }
   }
 
   private CafeMapDumperMain() {}
@@ -25,6 +25,7 @@
 package org.curioswitch.cafemap.server;
 
 import com.linecorp.armeria.server.Server;
+import com.linecorp.armeria.server.healthcheck.HealthChecker;
 import dagger.Binds;
 import dagger.Component;
 import dagger.Module;
@@ -35,11 +36,20 @@ import javax.inject.Singleton;
 import org.curioswitch.cafemap.server.places.GetPlaceGraph;
 import org.curioswitch.cafemap.server.places.GetPlacesGraph;
 import org.curioswitch.cafemap.server.places.ListLandmarksGraph;
+import org.curioswitch.cafemap.server.places.PlaceIndex;
+import org.curioswitch.cafemap.server.places.PlaceLoader;
 import org.curioswitch.common.server.framework.ServerModule;
 import org.curioswitch.common.server.framework.database.DatabaseModule;
+import org.curioswitch.common.server.framework.database.GenerateRecordMappers;
+import org.curioswitch.common.server.framework.database.WarmUpQuery;
+import org.curioswitch.common.server.framework.inject.EagerInit;
 import org.curioswitch.common.server.framework.staticsite.StaticSiteServiceDefinition;
+import org.curioswitch.database.cafemapdb.tables.pojos.Landmark;
+import org.curioswitch.database.cafemapdb.tables.pojos.Place;
 import org.curioswitch.gcloud.mapsservices.MapsServicesModule;
+import org.jooq.Query;
 
+@GenerateRecordMappers({Landmark.class, Place.class})
 public class CafeMapServiceMain {
 
   @Module(
@@ -61,6 +71,22 @@ public class CafeMapServiceMain {
           .classpathRoot("org/curioswitch/cafemap/web")
           .build();
     }
+
+    @Provides
+    @IntoSet
+    @WarmUpQuery
+    static Query placeLoaderQuery() {
+      return PlaceLoader.warmUpQuery();
+    }
+
+    @Binds
+    @IntoSet
+    abstract HealthChecker placeIndexHealthChecker(PlaceIndex placeIndex);
+
+    @Binds
+    @EagerInit
+    @IntoSet
+    abstract Object initPlaceIndex(PlaceIndex.Starter starter);
   }
 
   @Singleton
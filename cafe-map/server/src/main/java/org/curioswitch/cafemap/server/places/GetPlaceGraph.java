@@ -25,20 +25,16 @@
 package org.curioswitch.cafemap.server.places;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
 
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.BindsInstance;
 import dagger.producers.ProducerModule;
 import dagger.producers.Produces;
 import dagger.producers.ProductionSubcomponent;
 import org.curioswitch.cafemap.api.GetPlaceRequest;
 import org.curioswitch.cafemap.api.GetPlaceResponse;
-import org.curioswitch.common.server.framework.database.ForDatabase;
 import org.curioswitch.common.server.framework.grpc.Unvalidated;
 import org.curioswitch.database.cafemapdb.tables.pojos.Place;
-import org.jooq.DSLContext;
 import org.jooq.types.ULong;
 
 @ProducerModule
@@ -63,16 +59,8 @@ public abstract class GetPlaceGraph {
   }
 
   @Produces
-  static ListenableFuture<Place> fetchPlace(
-      GetPlaceRequest request,
-      DSLContext cafemapDb,
-      @ForDatabase ListeningExecutorService dbExecutor) {
-    return dbExecutor.submit(
-        () ->
-            cafemapDb
-                .selectFrom(PLACE)
-                .where(PLACE.ID.eq(ULong.valueOf(request.getId())))
-                .fetchOneInto(Place.class));
+  static ListenableFuture<Place> fetchPlace(GetPlaceRequest request, PlaceLoader placeLoader) {
+    return placeLoader.load(ULong.valueOf(request.getId()));
   }
 
   @Produces
@@ -26,6 +26,7 @@ package org.curioswitch.cafemap.server.places;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
 
 import com.google.common.base.Strings;
@@ -42,12 +43,15 @@ import dagger.producers.ProductionSubcomponent;
 import java.util.List;
 import org.curioswitch.cafemap.api.GetPlacesRequest;
 import org.curioswitch.cafemap.api.GetPlacesResponse;
+import org.curioswitch.cafemap.api.Place;
 import org.curioswitch.cafemap.server.util.S2Util;
 import org.curioswitch.common.server.framework.database.ForDatabase;
+import org.curioswitch.common.server.framework.database.QueryResultCache;
 import org.curioswitch.common.server.framework.grpc.Unvalidated;
-import org.curioswitch.database.cafemapdb.tables.pojos.Place;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Result;
 import org.jooq.impl.DSL;
 import org.jooq.types.ULong;
 
@@ -80,7 +84,26 @@ public abstract class GetPlacesGraph {
 
   @Produces
   static ListenableFuture<List<Place>> fetchPlaces(
-      S2LatLngRect viewport, DSLContext db, @ForDatabase ListeningExecutorService dbExecutor) {
+      S2LatLngRect viewport,
+      PlaceIndex placeIndex,
+      DSLContext db,
+      @ForDatabase ListeningExecutorService dbExecutor,
+      QueryResultCache queryResultCache) {
+    if (placeIndex.isLoaded()) {
+      return immediateFuture(placeIndex.find(viewport));
+    }
+    // Cached results are read from the primary, a lagging replica could return rows from before a
+    // write that invalidated them.
+    return dbExecutor.submit(() -> fetchPlacesFromDatabase(viewport, db, queryResultCache));
+  }
+
+  @Produces
+  static GetPlacesResponse response(List<Place> places) {
+    return GetPlacesResponse.newBuilder().addAllPlace(places).build();
+  }
+
+  static List<Place> fetchPlacesFromDatabase(
+      S2LatLngRect viewport, DSLContext db, QueryResultCache queryResultCache) {
     var coverer = new S2RegionCoverer();
     var coveredCells = coverer.getCovering(viewport);
 
@@ -95,24 +118,17 @@ public abstract class GetPlacesGraph {
                             .and(PLACE.S2_CELL.le(ULong.valueOf(cell.rangeMax().id()))))
                 .collect(toImmutableList()));
 
-    return dbExecutor.submit(
-        () -> db.selectFrom(PLACE).where(DSL.or(locationCondition)).fetchInto(Place.class));
-  }
+    Result<PlaceRecord> places =
+        queryResultCache.fetch(db.selectFrom(PLACE).where(DSL.or(locationCondition)));
 
-  @Produces
-  static GetPlacesResponse response(List<Place> places, S2LatLngRect viewport) {
-    return GetPlacesResponse.newBuilder()
-        .addAllPlace(
-            places.stream()
-                    .filter(
-                        place ->
-                            !Strings.isNullOrEmpty(place.getGooglePlaceId())
-                                && viewport.contains(
-                                    S2LatLng.fromDegrees(
-                                        place.getLatitude(), place.getLongitude())))
-                    .map(PlaceUtil::convertPlace)
-                ::iterator)
-        .build();
+    return places.stream()
+        .filter(
+            place ->
+                !Strings.isNullOrEmpty(place.getGooglePlaceId())
+                    && viewport.contains(
+                        S2LatLng.fromDegrees(place.getLatitude(), place.getLongitude())))
+        .map(PlaceUtil::convertPlace)
+        .collect(toImmutableList());
   }
 
   private GetPlacesGraph() {}
@@ -59,6 +59,7 @@ import org.curioswitch.cafemap.api.ListLandmarksRequest;
 import org.curioswitch.cafemap.api.ListLandmarksResponse;
 import org.curioswitch.cafemap.server.util.S2Util;
 import org.curioswitch.common.server.framework.database.ForDatabase;
+import org.curioswitch.common.server.framework.database.QueryResultCache;
 import org.curioswitch.common.server.framework.grpc.Unvalidated;
 import org.curioswitch.database.cafemapdb.tables.pojos.Landmark;
 import org.curioswitch.database.cafemapdb.tables.records.LandmarkRecord;
@@ -103,22 +104,27 @@ public abstract class ListLandmarksGraph {
 
   @Produces
   static ListenableFuture<List<List<Landmark>>> fetchDbLandmarks(
-      S2CellUnion coveredCells, DSLContext db, @ForDatabase ListeningExecutorService dbExecutor) {
+      S2CellUnion coveredCells,
+      DSLContext db,
+      @ForDatabase ListeningExecutorService dbExecutor,
+      QueryResultCache queryResultCache) {
     return Futures.successfulAsList(
         Streams.stream(coveredCells)
             .map(
                 cell ->
                     dbExecutor.submit(
                         () ->
-                            db.selectFrom(LANDMARK)
-                                .where(
-                                    LANDMARK
-                                        .S2_CELL
-                                        .ge(ULong.valueOf(cell.rangeMin().id()))
-                                        .and(
-                                            LANDMARK.S2_CELL.le(
-                                                ULong.valueOf(cell.rangeMax().id()))))
-                                .fetchInto(Landmark.class)))
+                            queryResultCache
+                                .fetch(
+                                    db.selectFrom(LANDMARK)
+                                        .where(
+                                            LANDMARK
+                                                .S2_CELL
+                                                .ge(ULong.valueOf(cell.rangeMin().id()))
+                                                .and(
+                                                    LANDMARK.S2_CELL.le(
+                                                        ULong.valueOf(cell.rangeMax().id())))))
+                                .into(Landmark.class)))
             .collect(toImmutableList()));
   }
 
@@ -26,12 +26,23 @@ package org.curioswitch.cafemap.server.places;
 
 import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
 import javax.inject.Inject;
 import org.curioswitch.cafemap.api.GetPlacesResponse;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
 import org.jooq.DSLContext;
 
 public class PlaceDumper {
 
+  private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+  // Makes MySQL Connector/J stream rows from the server one at a time instead of reading the
+  // entire result into memory.
+  private static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
   private final DSLContext db;
 
   @Inject
@@ -39,13 +50,41 @@ public class PlaceDumper {
     this.db = db;
   }
 
-  public GetPlacesResponse dumpAllPlaces() {
-    var response = GetPlacesResponse.newBuilder();
-
-    try (var stream = db.selectFrom(PLACE).fetchStream()) {
-      stream.forEach(place -> response.addPlace(PlaceUtil.convertPlace(place)));
+  /**
+   * Writes all places to {@code output} as a sequence of serialized {@link GetPlacesResponse}, each
+   * containing a chunk of places. Because repeated fields of concatenated messages are merged when
+   * parsing, the output can be read back as a single {@link GetPlacesResponse} with all places.
+   */
+  public void writeAllPlaces(OutputStream output) throws IOException {
+    try {
+      dumpAllPlaces(
+          DEFAULT_CHUNK_SIZE,
+          chunk -> {
+            try {
+              chunk.writeTo(output);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+  }
 
-    return response.build();
+  /**
+   * Reads all places from the database with a streaming cursor and passes them to {@code
+   * consumer} in chunks of up to {@code chunkSize}, so memory usage does not depend on the number
+   * of places.
+   */
+  public void dumpAllPlaces(int chunkSize, Consumer<GetPlacesResponse> consumer) {
+    try (var cursor = db.selectFrom(PLACE).fetchSize(MYSQL_STREAMING_FETCH_SIZE).fetchLazy()) {
+      while (cursor.hasNext()) {
+        var chunk = GetPlacesResponse.newBuilder();
+        for (PlaceRecord place : cursor.fetchNext(chunkSize)) {
+          chunk.addPlace(PlaceUtil.convertPlace(place));
+        }
+        consumer.accept(chunk.build());
+      }
+    }
   }
 }
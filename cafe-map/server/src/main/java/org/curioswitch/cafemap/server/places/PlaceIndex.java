@@ -0,0 +1,299 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.cafemap.server.places;
+
+import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2RegionCoverer;
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.server.healthcheck.HealthChecker;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.curioswitch.cafemap.api.Place;
+import org.curioswitch.common.server.framework.database.ForReadReplica;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.types.ULong;
+
+/**
+ * An in-memory index of all places by S2 cell, allowing {@code GetPlaces} to be served without
+ * querying the database. All places are loaded on startup, and then places updated since the
+ * previous load are loaded periodically using {@code updated_at}, which is set by the database on
+ * every update. Deletes can't be seen this way, so all places are also reloaded every few minutes.
+ *
+ * <p>Reports unhealthy until the initial load has finished, so traffic isn't routed to the server
+ * until it can be served from memory. If the initial load takes longer than a few minutes, reports
+ * healthy anyway and requests are served from the database until it finishes.
+ */
+@Singleton
+public class PlaceIndex implements HealthChecker {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+  // The number of refreshes between reloads of all places, to remove deleted ones.
+  private static final int REFRESHES_PER_RELOAD = 20;
+
+  private static final Duration LOAD_TIMEOUT = Duration.ofMinutes(3);
+
+  // Reload places updated a bit before the last seen update, since transactions can commit after
+  // a later one and timestamps have limited precision.
+  private static final Duration REFRESH_OVERLAP = Duration.ofMinutes(1);
+
+  private final DSLContext db;
+
+  // Only accessed by refresh and reload.
+  private final Map<ULong, IndexedPlace> placesById = new HashMap<>();
+  @Nullable private LocalDateTime lastUpdatedAt;
+  private int refreshesSinceReload;
+
+  @Nullable private volatile Snapshot snapshot;
+
+  private volatile boolean loadTimedOut;
+
+  @Inject
+  PlaceIndex(@ForReadReplica DSLContext db) {
+    this.db = db;
+  }
+
+  /** Starts loading places in the background, and then refreshing them periodically. */
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void start() {
+    CommonPools.blockingTaskExecutor()
+        .schedule(
+            () -> {
+              if (!isLoaded()) {
+                logger.warn("Place index did not load in {}, continuing without it.", LOAD_TIMEOUT);
+                loadTimedOut = true;
+              }
+            },
+            LOAD_TIMEOUT.toMillis(),
+            TimeUnit.MILLISECONDS);
+    CommonPools.blockingTaskExecutor()
+        .scheduleWithFixedDelay(
+            () -> {
+              try {
+                refresh();
+              } catch (Throwable t) {
+                logger.warn("Could not refresh place index.", t);
+              }
+            },
+            0,
+            REFRESH_INTERVAL.toMillis(),
+            TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public boolean isHealthy() {
+    return isLoaded() || loadTimedOut;
+  }
+
+  /** Returns whether the initial load of places has finished. */
+  boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /**
+   * Returns the places within {@code viewport}, with the same results as querying the database by
+   * the cells covering the viewport. Must only be called after {@link #isLoaded()}.
+   */
+  List<Place> find(S2LatLngRect viewport) {
+    Snapshot snapshot = this.snapshot;
+    if (snapshot == null) {
+      throw new IllegalStateException("Place index has not been loaded yet.");
+    }
+
+    ImmutableList.Builder<Place> places = ImmutableList.builder();
+    for (S2CellId cell : new S2RegionCoverer().getCovering(viewport)) {
+      long max = toSortable(cell.rangeMax().id());
+      for (int i = snapshot.lowerBound(toSortable(cell.rangeMin().id()));
+          i < snapshot.cellIds.length && snapshot.cellIds[i] <= max;
+          i++) {
+        var position = S2LatLng.fromDegrees(snapshot.latitudes[i], snapshot.longitudes[i]);
+        if (viewport.contains(position)) {
+          places.add(snapshot.places[i]);
+        }
+      }
+    }
+    return places.build();
+  }
+
+  /**
+   * Loads the places updated since the last refresh, or reloads all places on the first refresh and
+   * periodically after that.
+   */
+  synchronized void refresh() {
+    if (lastUpdatedAt == null || ++refreshesSinceReload >= REFRESHES_PER_RELOAD) {
+      reload();
+      return;
+    }
+
+    Result<PlaceRecord> updated =
+        db.selectFrom(PLACE)
+            .where(PLACE.UPDATED_AT.ge(lastUpdatedAt.minus(REFRESH_OVERLAP)))
+            .fetch();
+
+    // Most places loaded again because of the overlap are unchanged, so only rebuild the snapshot
+    // if one was actually updated.
+    boolean changed = false;
+    for (PlaceRecord place : updated) {
+      // Places without a Google Place ID are never returned.
+      if (Strings.isNullOrEmpty(place.getGooglePlaceId())) {
+        changed |= placesById.remove(place.getId()) != null;
+      } else {
+        IndexedPlace indexed = placesById.get(place.getId());
+        if (!isCurrent(indexed, place)) {
+          placesById.put(place.getId(), new IndexedPlace(place));
+          changed = true;
+        }
+      }
+      updateLastUpdatedAt(place);
+    }
+    if (changed) {
+      snapshot = new Snapshot(placesById.values());
+    }
+  }
+
+  /** Loads all places, replacing the index so places deleted from the database are removed. */
+  synchronized void reload() {
+    Result<PlaceRecord> all = db.selectFrom(PLACE).fetch();
+
+    Map<ULong, IndexedPlace> reloaded = new HashMap<>();
+    for (PlaceRecord place : all) {
+      if (!Strings.isNullOrEmpty(place.getGooglePlaceId())) {
+        IndexedPlace indexed = placesById.get(place.getId());
+        reloaded.put(place.getId(), isCurrent(indexed, place) ? indexed : new IndexedPlace(place));
+      }
+      updateLastUpdatedAt(place);
+    }
+    placesById.clear();
+    placesById.putAll(reloaded);
+    refreshesSinceReload = 0;
+
+    boolean initialLoad = snapshot == null;
+    snapshot = new Snapshot(placesById.values());
+    if (initialLoad) {
+      logger.info("Loaded {} places into place index.", placesById.size());
+    }
+  }
+
+  private void updateLastUpdatedAt(PlaceRecord place) {
+    if (lastUpdatedAt == null || place.getUpdatedAt().isAfter(lastUpdatedAt)) {
+      lastUpdatedAt = place.getUpdatedAt();
+    }
+  }
+
+  private static boolean isCurrent(@Nullable IndexedPlace indexed, PlaceRecord place) {
+    return indexed != null && Objects.equals(indexed.updatedAt, place.getUpdatedAt());
+  }
+
+  // S2 cell IDs are unsigned, flipping the sign bit makes signed comparison order them correctly.
+  private static long toSortable(long cellId) {
+    return cellId ^ Long.MIN_VALUE;
+  }
+
+  private static final class IndexedPlace {
+    private final long cellId;
+    private final double latitude;
+    private final double longitude;
+    private final Place place;
+    private final LocalDateTime updatedAt;
+
+    private IndexedPlace(PlaceRecord record) {
+      cellId = toSortable(record.getS2Cell().longValue());
+      latitude = record.getLatitude();
+      longitude = record.getLongitude();
+      place = PlaceUtil.convertPlace(record);
+      updatedAt = record.getUpdatedAt();
+    }
+  }
+
+  /** Starts the {@link PlaceIndex} when injected, bound as an {@code EagerInit} dependency. */
+  @Singleton
+  public static final class Starter {
+    @Inject
+    Starter(PlaceIndex placeIndex) {
+      placeIndex.start();
+    }
+  }
+
+  /** An immutable view of the index, with places sorted by cell ID in parallel arrays. */
+  private static final class Snapshot {
+    private final long[] cellIds;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final Place[] places;
+
+    private Snapshot(Iterable<IndexedPlace> indexedPlaces) {
+      List<IndexedPlace> sorted =
+          ImmutableList.sortedCopyOf(
+              Comparator.comparingLong((IndexedPlace place) -> place.cellId), indexedPlaces);
+      cellIds = new long[sorted.size()];
+      latitudes = new double[sorted.size()];
+      longitudes = new double[sorted.size()];
+      places = new Place[sorted.size()];
+      for (int i = 0; i < sorted.size(); i++) {
+        IndexedPlace place = sorted.get(i);
+        cellIds[i] = place.cellId;
+        latitudes[i] = place.latitude;
+        longitudes[i] = place.longitude;
+        places[i] = place.place;
+      }
+    }
+
+    /** Returns the index of the first place with a cell ID not less than {@code cellId}. */
+    private int lowerBound(long cellId) {
+      int low = 0;
+      int high = cellIds.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cellIds[mid] < cellId) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
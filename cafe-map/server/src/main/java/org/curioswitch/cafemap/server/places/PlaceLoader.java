@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.cafemap.server.places;
+
+import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.time.Duration;
+import java.util.Collection;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.curioswitch.common.server.framework.database.BatchLoader;
+import org.curioswitch.common.server.framework.database.ForDatabase;
+import org.curioswitch.common.server.framework.database.ForReadReplica;
+import org.curioswitch.database.cafemapdb.tables.pojos.Place;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.ResultQuery;
+import org.jooq.impl.DSL;
+import org.jooq.types.ULong;
+
+/** Loads {@link Place}s by ID, batching lookups from concurrent requests into a single query. */
+@Singleton
+public class PlaceLoader {
+
+  private static final Duration BATCH_WINDOW = Duration.ofMillis(2);
+  private static final int MAX_BATCH_SIZE = 100;
+
+  private final BatchLoader<ULong, Place> loader;
+
+  @Inject
+  PlaceLoader(
+      @ForReadReplica DSLContext cafemapDb, @ForDatabase ListeningExecutorService dbExecutor) {
+    loader =
+        BatchLoader.create(
+            ids -> cafemapDb.fetch(selectPlaces(ids)).intoMap(PLACE.ID, Place.class),
+            dbExecutor,
+            BATCH_WINDOW,
+            MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Returns the query for loading a single place, to prepare when warming up the database. Only
+   * this shape is warmed up - batches of more than one place use a different statement for each
+   * number of ids.
+   */
+  public static Query warmUpQuery() {
+    return selectPlaces(ImmutableSet.of(ULong.valueOf(0)));
+  }
+
+  private static ResultQuery<PlaceRecord> selectPlaces(Collection<ULong> ids) {
+    return DSL.selectFrom(PLACE).where(PLACE.ID.in(ids));
+  }
+
+  /** Returns the {@link Place} with {@code id}, or {@code null} if it doesn't exist. */
+  public ListenableFuture<Place> load(ULong id) {
+    return loader.load(id);
+  }
+}
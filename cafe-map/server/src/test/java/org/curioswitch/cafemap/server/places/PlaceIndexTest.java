@@ -0,0 +1,288 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.cafemap.server.places;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.curioswitch.database.cafemapdb.tables.Place.PLACE;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.curioswitch.cafemap.api.Place;
+import org.curioswitch.common.server.framework.database.QueryResultCache;
+import org.curioswitch.database.cafemapdb.tables.records.PlaceRecord;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.jooq.types.ULong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PlaceIndexTest {
+
+  private static final LocalDateTime CREATED = LocalDateTime.of(2022, 1, 1, 0, 0);
+  private static final LocalDateTime UPDATED = CREATED.plusDays(1);
+
+  private static final PlaceRecord TOKYO = place(1, "Tokyo", 35.68, 139.76, "tokyo", CREATED);
+  // Face 4, so the cell ID has the top bit set.
+  private static final PlaceRecord CHICAGO =
+      place(2, "Chicago", 41.88, -87.63, "chicago", CREATED);
+  private static final PlaceRecord SAO_PAULO =
+      place(3, "Sao Paulo", -23.55, -46.63, "sao-paulo", CREATED);
+  // Face 5, so the cell ID has the top bit set.
+  private static final PlaceRecord ANTARCTICA =
+      place(4, "Antarctica", -80, 0, "antarctica", CREATED);
+  private static final PlaceRecord FIJI_EAST = place(5, "Fiji East", -17.7, 178, "fiji1", CREATED);
+  private static final PlaceRecord FIJI_WEST =
+      place(6, "Fiji West", -17.7, -179, "fiji2", CREATED);
+  private static final PlaceRecord LONDON = place(7, "London", 51.5, -0.12, "london", CREATED);
+  private static final PlaceRecord NO_GOOGLE_PLACE_ID =
+      place(8, "Shibuya", 35.66, 139.70, null, CREATED);
+
+  private static final List<PlaceRecord> ALL_PLACES =
+      ImmutableList.of(
+          TOKYO, CHICAGO, SAO_PAULO, ANTARCTICA, FIJI_EAST, FIJI_WEST, LONDON, NO_GOOGLE_PLACE_ID);
+
+  private static final DSLContext DSL_CONTEXT = DSL.using(SQLDialect.MYSQL);
+
+  private static final List<S2LatLngRect> VIEWPORTS =
+      ImmutableList.of(
+          S2LatLngRect.full(),
+          S2LatLngRect.empty(),
+          // Tokyo and Shibuya.
+          rect(35, 139, 36, 140),
+          // The Americas.
+          rect(-60, -130, 60, -30),
+          // Around the south pole.
+          rect(-90, -180, -70, 180),
+          // Crossing the antimeridian.
+          rect(-20, 170, -15, -170),
+          // Only one side of the antimeridian.
+          rect(-20, 170, -15, 179),
+          // Exactly a place's position.
+          S2LatLngRect.fromPoint(S2LatLng.fromDegrees(51.5, -0.12)),
+          // Around a place, smaller than most covering cells.
+          S2LatLngRect.fromCenterSize(
+              S2LatLng.fromDegrees(41.88, -87.63), S2LatLng.fromDegrees(0.001, 0.001)),
+          // Nothing inside.
+          rect(0, 0, 1, 1));
+
+  private List<PlaceRecord> rows;
+  private DSLContext db;
+  private PlaceIndex placeIndex;
+
+  @BeforeEach
+  void setUp() {
+    rows = ALL_PLACES;
+    db = DSL.using(new MockConnection(this::execute), SQLDialect.MYSQL);
+    placeIndex = new PlaceIndex(db);
+  }
+
+  @Test
+  void topBitSet() {
+    assertThat(CHICAGO.getS2Cell().longValue()).isNegative();
+    assertThat(ANTARCTICA.getS2Cell().longValue()).isNegative();
+    assertThat(TOKYO.getS2Cell().longValue()).isPositive();
+  }
+
+  @Test
+  void notLoaded() {
+    assertThat(placeIndex.isLoaded()).isFalse();
+    assertThat(placeIndex.isHealthy()).isFalse();
+
+    placeIndex.refresh();
+
+    assertThat(placeIndex.isLoaded()).isTrue();
+    assertThat(placeIndex.isHealthy()).isTrue();
+  }
+
+  @Test
+  void sameAsDatabase() {
+    placeIndex.reload();
+
+    for (S2LatLngRect viewport : VIEWPORTS) {
+      List<Place> fromDatabase =
+          GetPlacesGraph.fetchPlacesFromDatabase(viewport, db, QueryResultCache.disabled());
+
+      assertThat(placeIndex.find(viewport))
+          .as("viewport %s", viewport)
+          .containsExactlyInAnyOrderElementsOf(fromDatabase);
+    }
+  }
+
+  @Test
+  void findsPlaces() {
+    placeIndex.reload();
+
+    assertThat(placeIndex.find(rect(-60, -130, 60, -30)))
+        .containsExactlyInAnyOrder(
+            PlaceUtil.convertPlace(CHICAGO), PlaceUtil.convertPlace(SAO_PAULO));
+    assertThat(placeIndex.find(rect(-20, 170, -15, -170)))
+        .containsExactlyInAnyOrder(
+            PlaceUtil.convertPlace(FIJI_EAST), PlaceUtil.convertPlace(FIJI_WEST));
+    assertThat(placeIndex.find(S2LatLngRect.full())).hasSize(7);
+  }
+
+  @Test
+  void refreshReplacesUpdatedPlaces() {
+    placeIndex.reload();
+
+    PlaceRecord renamedTokyo = place(1, "Tokyo Station", 35.68, 139.76, "tokyo", UPDATED);
+    PlaceRecord movedLondon = place(7, "London", 48.85, 2.35, "london", UPDATED);
+    PlaceRecord chicagoWithoutGooglePlaceId =
+        place(2, "Chicago", 41.88, -87.63, null, UPDATED);
+    rows =
+        ImmutableList.of(
+            renamedTokyo,
+            chicagoWithoutGooglePlaceId,
+            SAO_PAULO,
+            ANTARCTICA,
+            FIJI_EAST,
+            FIJI_WEST,
+            movedLondon,
+            NO_GOOGLE_PLACE_ID);
+
+    placeIndex.refresh();
+
+    assertThat(placeIndex.find(S2LatLngRect.full()))
+        .containsExactlyInAnyOrder(
+            PlaceUtil.convertPlace(renamedTokyo),
+            PlaceUtil.convertPlace(SAO_PAULO),
+            PlaceUtil.convertPlace(ANTARCTICA),
+            PlaceUtil.convertPlace(FIJI_EAST),
+            PlaceUtil.convertPlace(FIJI_WEST),
+            PlaceUtil.convertPlace(movedLondon));
+    assertThat(placeIndex.find(rect(51, -1, 52, 1))).isEmpty();
+    assertThat(placeIndex.find(rect(48, 2, 49, 3)))
+        .containsExactly(PlaceUtil.convertPlace(movedLondon));
+  }
+
+  @Test
+  void refreshOnlyLoadsUpdatedPlaces() {
+    placeIndex.reload();
+
+    // Deleted, but not visible to an incremental refresh.
+    rows = ImmutableList.of(TOKYO);
+    placeIndex.refresh();
+
+    assertThat(placeIndex.find(S2LatLngRect.full())).hasSize(7);
+  }
+
+  @Test
+  void reloadRemovesDeletedPlaces() {
+    placeIndex.reload();
+
+    rows = ImmutableList.of(TOKYO, NO_GOOGLE_PLACE_ID);
+    placeIndex.reload();
+
+    assertThat(placeIndex.find(S2LatLngRect.full()))
+        .containsExactly(PlaceUtil.convertPlace(TOKYO));
+  }
+
+  @Test
+  void refreshPeriodicallyReloads() {
+    placeIndex.refresh();
+
+    rows = ImmutableList.of(TOKYO);
+    for (int i = 0; i < 19; i++) {
+      placeIndex.refresh();
+    }
+    assertThat(placeIndex.find(S2LatLngRect.full())).hasSize(7);
+
+    placeIndex.refresh();
+    assertThat(placeIndex.find(S2LatLngRect.full()))
+        .containsExactly(PlaceUtil.convertPlace(TOKYO));
+  }
+
+  private MockResult[] execute(MockExecuteContext ctx) {
+    Result<PlaceRecord> result = DSL_CONTEXT.newResult(PLACE);
+    for (PlaceRecord row : rows) {
+      if (matches(row, ctx.bindings())) {
+        result.add(row);
+      }
+    }
+    return new MockResult[] {new MockResult(result.size(), result)};
+  }
+
+  // Evaluates the conditions of the queries for places, which are either on updated_at or a
+  // disjunction of s2_cell ranges.
+  private static boolean matches(PlaceRecord row, Object[] bindings) {
+    if (bindings.length == 0) {
+      return true;
+    }
+    if (bindings[0] instanceof Timestamp) {
+      return !row.getUpdatedAt().isBefore(((Timestamp) bindings[0]).toLocalDateTime());
+    }
+    if (bindings[0] instanceof LocalDateTime) {
+      return !row.getUpdatedAt().isBefore((LocalDateTime) bindings[0]);
+    }
+    BigInteger cell = row.getS2Cell().toBigInteger();
+    for (int i = 0; i < bindings.length; i += 2) {
+      if (cell.compareTo(toBigInteger(bindings[i])) >= 0
+          && cell.compareTo(toBigInteger(bindings[i + 1])) <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static BigInteger toBigInteger(Object binding) {
+    return new BigDecimal(binding.toString()).toBigIntegerExact();
+  }
+
+  private static S2LatLngRect rect(double latLo, double lngLo, double latHi, double lngHi) {
+    return new S2LatLngRect(S2LatLng.fromDegrees(latLo, lngLo), S2LatLng.fromDegrees(latHi, lngHi));
+  }
+
+  private static PlaceRecord place(
+      long id,
+      String name,
+      double latitude,
+      double longitude,
+      @Nullable String googlePlaceId,
+      LocalDateTime updatedAt) {
+    return new PlaceRecord(
+        ULong.valueOf(id),
+        name,
+        latitude,
+        longitude,
+        ULong.valueOf(S2CellId.fromLatLng(S2LatLng.fromDegrees(latitude, longitude)).id()),
+        null,
+        googlePlaceId,
+        CREATED,
+        updatedAt);
+  }
+}
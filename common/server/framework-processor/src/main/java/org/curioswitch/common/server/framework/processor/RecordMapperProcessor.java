@@ -0,0 +1,366 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.processor;
+
+import com.google.auto.service.AutoService;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates a {@code GeneratedRecordMappers} for each element annotated with {@code
+ * GenerateRecordMappers}, mapping records to each listed class by calling its constructor with the
+ * record fields of the same name, and registers them in {@code META-INF/services} so they are used
+ * by {@code DatabaseUtil.recordMapperProvider()}. The index of each field is resolved once for each
+ * {@code RecordType} the mapper is created for, so mapping a record only reads values by index.
+ */
+@AutoService(Processor.class)
+@SupportedAnnotationTypes(RecordMapperProcessor.ANNOTATION)
+public class RecordMapperProcessor extends AbstractProcessor {
+
+  static final String ANNOTATION =
+      "org.curioswitch.common.server.framework.database.GenerateRecordMappers";
+
+  private static final String GENERATED_RECORD_MAPPERS =
+      "org.curioswitch.common.server.framework.database.GeneratedRecordMappers";
+
+  private static final String MAPPER_FACTORY =
+      "java.util.function.Function<org.jooq.RecordType<?>,"
+          + " org.jooq.RecordMapper<org.jooq.Record, ?>>";
+
+  // javac names parameters like this when the class file was compiled without -parameters.
+  private static final Pattern SYNTHETIC_PARAMETER_NAME = Pattern.compile("arg\\d+");
+
+  private final List<String> generatedClasses = new ArrayList<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      if (!generatedClasses.isEmpty()) {
+        writeServiceFile();
+      }
+      return false;
+    }
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        generate(element);
+      }
+    }
+    return true;
+  }
+
+  private void generate(Element annotated) {
+    List<TypeElement> types = annotatedTypes(annotated);
+    if (types == null) {
+      return;
+    }
+
+    List<String> mappers = new ArrayList<>();
+    for (TypeElement type : types) {
+      String mapper = mapperExpression(type, annotated);
+      if (mapper == null) {
+        return;
+      }
+      mappers.add(
+          "    mappers.put(\n        "
+              + type.getQualifiedName()
+              + ".class,\n        recordType -> {\n"
+              + mapper
+              + "        });\n");
+    }
+
+    String packageName =
+        processingEnv.getElementUtils().getPackageOf(annotated).getQualifiedName().toString();
+    String simpleName = generatedSimpleName(annotated);
+    String className = packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(className, annotated);
+      try (PrintWriter writer = new PrintWriter(file.openWriter())) {
+        if (!packageName.isEmpty()) {
+          writer.println("package " + packageName + ";");
+          writer.println();
+        }
+        writer.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+        writer.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+        writer.println(
+            "public final class " + simpleName + " implements " + GENERATED_RECORD_MAPPERS + " {");
+        writer.println();
+        writer.println("  @Override");
+        writer.println(
+            "  public java.util.Map<Class<?>, " + MAPPER_FACTORY + "> recordMappers() {");
+        writer.println(
+            "    java.util.Map<Class<?>, "
+                + MAPPER_FACTORY
+                + "> mappers = new java.util.HashMap<>();");
+        mappers.forEach(writer::print);
+        writer.println("    return mappers;");
+        writer.println("  }");
+        writer.println("}");
+      }
+    } catch (IOException e) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Kind.ERROR, "Could not write " + className + ": " + e.getMessage(), annotated);
+      return;
+    }
+    generatedClasses.add(className);
+  }
+
+  private List<TypeElement> annotatedTypes(Element annotated) {
+    AnnotationMirror annotation =
+        annotated.getAnnotationMirrors().stream()
+            .filter(
+                mirror ->
+                    ((TypeElement) mirror.getAnnotationType().asElement())
+                        .getQualifiedName()
+                        .contentEquals(ANNOTATION))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("Element is not annotated."));
+
+    List<TypeElement> types = new ArrayList<>();
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      if (!entry.getKey().getSimpleName().contentEquals("value")) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      List<? extends AnnotationValue> values =
+          (List<? extends AnnotationValue>) entry.getValue().getValue();
+      for (AnnotationValue value : values) {
+        if (!(value.getValue() instanceof DeclaredType)) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Kind.ERROR, "Could not resolve class " + value, annotated, annotation, value);
+          return null;
+        }
+        types.add((TypeElement) ((DeclaredType) value.getValue()).asElement());
+      }
+    }
+    return types;
+  }
+
+  private String mapperExpression(TypeElement type, Element annotated) {
+    ExecutableElement constructor = findConstructor(type, annotated);
+    if (constructor == null) {
+      return null;
+    }
+    StringBuilder indexes = new StringBuilder();
+    List<String> arguments = new ArrayList<>();
+    for (VariableElement parameter : constructor.getParameters()) {
+      String name = parameter.getSimpleName().toString();
+      if (SYNTHETIC_PARAMETER_NAME.matcher(name).matches()) {
+        error(
+            "Parameter names of "
+                + type.getQualifiedName()
+                + " are not available, make sure it is compiled with -parameters.",
+            annotated);
+        return null;
+      }
+      String index = "index" + arguments.size();
+      indexes
+          .append("          int ")
+          .append(index)
+          .append(" = ")
+          .append(GENERATED_RECORD_MAPPERS)
+          .append(".indexOf(recordType, \"")
+          .append(toSnakeCase(name))
+          .append("\");\n");
+      arguments.add(fieldValueExpression(index, parameter.asType()));
+    }
+    return indexes
+        + "          return record ->\n"
+        + "              new "
+        + type.getQualifiedName()
+        + "(\n"
+        + arguments.stream()
+            .map(argument -> "                  " + argument)
+            .collect(Collectors.joining(",\n"))
+        + ");\n";
+  }
+
+  /**
+   * Returns the public constructor with the most parameters, ignoring copy constructors like the
+   * ones jOOQ generates that accept the POJO's own interface.
+   */
+  private ExecutableElement findConstructor(TypeElement type, Element annotated) {
+    if (!type.getModifiers().contains(Modifier.PUBLIC)
+        || type.getModifiers().contains(Modifier.ABSTRACT)
+        || type.getKind() != ElementKind.CLASS) {
+      error(type.getQualifiedName() + " must be a public, concrete class.", annotated);
+      return null;
+    }
+    ExecutableElement found = null;
+    for (ExecutableElement constructor :
+        ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (!constructor.getModifiers().contains(Modifier.PUBLIC) || isCopyConstructor(constructor)) {
+        continue;
+      }
+      if (found == null || constructor.getParameters().size() > found.getParameters().size()) {
+        found = constructor;
+      }
+    }
+    if (found == null || found.getParameters().isEmpty()) {
+      error(
+          type.getQualifiedName() + " must have a public constructor accepting its properties.",
+          annotated);
+      return null;
+    }
+    return found;
+  }
+
+  private boolean isCopyConstructor(ExecutableElement constructor) {
+    if (constructor.getParameters().size() != 1) {
+      return false;
+    }
+    return processingEnv
+        .getTypeUtils()
+        .isAssignable(
+            constructor.getEnclosingElement().asType(),
+            constructor.getParameters().get(0).asType());
+  }
+
+  private String fieldValueExpression(String index, TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      TypeElement boxed = processingEnv.getTypeUtils().boxedClass((PrimitiveType) type);
+      return "java.util.Objects.requireNonNullElse("
+          + getExpression(index, boxed.getQualifiedName().toString())
+          + ", "
+          + defaultValue(type.getKind())
+          + ")";
+    }
+    return getExpression(index, processingEnv.getTypeUtils().erasure(type).toString());
+  }
+
+  private static String getExpression(String index, String typeName) {
+    return GENERATED_RECORD_MAPPERS + ".get(record, " + index + ", " + typeName + ".class)";
+  }
+
+  private static String defaultValue(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return "false";
+      case BYTE:
+        return "(byte) 0";
+      case SHORT:
+        return "(short) 0";
+      case CHAR:
+        return "'\\0'";
+      case LONG:
+        return "0L";
+      case FLOAT:
+        return "0f";
+      case DOUBLE:
+        return "0d";
+      default:
+        return "0";
+    }
+  }
+
+  private void writeServiceFile() {
+    String path = "META-INF/services/" + GENERATED_RECORD_MAPPERS;
+    try {
+      FileObject file =
+          processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+      try (Writer writer = file.openWriter()) {
+        for (String className : generatedClasses) {
+          writer.write(className);
+          writer.write('\n');
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write " + path + ": " + e);
+    }
+  }
+
+  private void error(String message, Element element) {
+    processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+  }
+
+  private static String generatedSimpleName(Element annotated) {
+    if (annotated.getKind() == ElementKind.PACKAGE) {
+      return "PackageRecordMappers";
+    }
+    StringBuilder name = new StringBuilder(annotated.getSimpleName());
+    for (Element enclosing = annotated.getEnclosingElement();
+        enclosing.getKind() != ElementKind.PACKAGE;
+        enclosing = enclosing.getEnclosingElement()) {
+      name.insert(0, enclosing.getSimpleName() + "_");
+    }
+    return name.append("RecordMappers").toString();
+  }
+
+  /** Converts a camel case property name like {@code googlePlaceId} to {@code google_place_id}. */
+  static String toSnakeCase(String name) {
+    StringBuilder snakeCase = new StringBuilder(name.length() + 4);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0) {
+          snakeCase.append('_');
+        }
+        snakeCase.append(Character.toLowerCase(c));
+      } else {
+        snakeCase.append(c);
+      }
+    }
+    return snakeCase.toString();
+  }
+}
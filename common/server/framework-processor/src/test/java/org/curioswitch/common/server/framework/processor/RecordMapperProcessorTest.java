@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import org.curioswitch.common.server.framework.database.GeneratedRecordMappers;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+
+class RecordMapperProcessorTest {
+
+  private static final JavaFileObject MAPPERS =
+      JavaFileObjects.forSourceLines(
+          "test.Mappers",
+          "package test;",
+          "",
+          "import org.curioswitch.common.server.framework.database.GenerateRecordMappers;",
+          "",
+          "@GenerateRecordMappers(Place.class)",
+          "class Mappers {}");
+
+  private static final DSLContext DSL_CONTEXT = DSL.using(SQLDialect.DEFAULT);
+
+  @Test
+  void selectsLargestPublicConstructor() throws Exception {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "public class Place {",
+                "  public final Long id;",
+                "  public final String name;",
+                "",
+                "  public Place(Place other) {",
+                "    this(other.id, other.name);",
+                "  }",
+                "",
+                "  public Place(Long id) {",
+                "    this(id, null);",
+                "  }",
+                "",
+                "  public Place(Long id, String name) {",
+                "    this.id = id;",
+                "    this.name = name;",
+                "  }",
+                "",
+                "  private Place(Long id, String name, String ignored) {",
+                "    this(id, name);",
+                "  }",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.SUCCESS);
+    Object place = map(compilation, placeResult("id", "name", 1L, "Cafe"));
+    assertThat(place).hasFieldOrPropertyWithValue("id", 1L);
+    assertThat(place).hasFieldOrPropertyWithValue("name", "Cafe");
+  }
+
+  @Test
+  void mapsSnakeCaseFields() throws Exception {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "public class Place {",
+                "  public final long placeId;",
+                "  public final String googlePlaceId;",
+                "",
+                "  public Place(long placeId, String googlePlaceId) {",
+                "    this.placeId = placeId;",
+                "    this.googlePlaceId = googlePlaceId;",
+                "  }",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.SUCCESS);
+    Object place = map(compilation, placeResult("place_id", "google_place_id", 1L, "abc"));
+    assertThat(place).hasFieldOrPropertyWithValue("placeId", 1L);
+    assertThat(place).hasFieldOrPropertyWithValue("googlePlaceId", "abc");
+  }
+
+  @Test
+  void missingFieldsAreDefaults() throws Exception {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "public class Place {",
+                "  public final int rating;",
+                "  public final String name;",
+                "",
+                "  public Place(int rating, String name) {",
+                "    this.rating = rating;",
+                "    this.name = name;",
+                "  }",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.SUCCESS);
+    // Both columns have been renamed, so neither is found.
+    Object place = map(compilation, placeResult("score", "title", 5L, "Cafe"));
+    assertThat(place).hasFieldOrPropertyWithValue("rating", 0);
+    assertThat(place).hasFieldOrPropertyWithValue("name", null);
+  }
+
+  @Test
+  void noUsableConstructor() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "public class Place {",
+                "  public Place() {}",
+                "",
+                "  Place(Long id) {}",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.FAILURE);
+    assertThat(compilation.errors())
+        .extracting(error -> error.getMessage(Locale.ROOT))
+        .containsExactly("test.Place must have a public constructor accepting its properties.");
+  }
+
+  @Test
+  void notPublicClass() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "class Place {",
+                "  public Place(Long id) {}",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.FAILURE);
+    assertThat(compilation.errors())
+        .extracting(error -> error.getMessage(Locale.ROOT))
+        .containsExactly("test.Place must be a public, concrete class.");
+  }
+
+  @Test
+  void registersService() throws Exception {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "test.Place",
+                "package test;",
+                "",
+                "public class Place {",
+                "  public Place(Long id) {}",
+                "}"));
+
+    assertThat(compilation.status()).isEqualTo(Compilation.Status.SUCCESS);
+    assertThat(
+            compilation
+                .generatedFile(
+                    StandardLocation.CLASS_OUTPUT,
+                    "META-INF/services/" + GeneratedRecordMappers.class.getName())
+                .orElseThrow()
+                .getCharContent(false)
+                .toString())
+        .isEqualTo("test.MappersRecordMappers\n");
+  }
+
+  @Test
+  void snakeCase() {
+    assertThat(RecordMapperProcessor.toSnakeCase("id")).isEqualTo("id");
+    assertThat(RecordMapperProcessor.toSnakeCase("googlePlaceId")).isEqualTo("google_place_id");
+    assertThat(RecordMapperProcessor.toSnakeCase("instagramId")).isEqualTo("instagram_id");
+  }
+
+  private static Compilation compile(JavaFileObject place) {
+    return Compiler.javac()
+        .withProcessors(new RecordMapperProcessor())
+        .withOptions("-parameters")
+        .compile(MAPPERS, place);
+  }
+
+  private static Result<Record2<Long, String>> placeResult(
+      String firstName, String secondName, long first, String second) {
+    Field<Long> firstField = DSL.field(DSL.name(firstName), Long.class);
+    Field<String> secondField = DSL.field(DSL.name(secondName), String.class);
+    Result<Record2<Long, String>> result = DSL_CONTEXT.newResult(firstField, secondField);
+    result.add(DSL_CONTEXT.newRecord(firstField, secondField).values(first, second));
+    return result;
+  }
+
+  private static Object map(Compilation compilation, Result<? extends Record> result)
+      throws Exception {
+    ClassLoader classLoader = new CompiledClassLoader(compilation);
+    GeneratedRecordMappers mappers =
+        (GeneratedRecordMappers)
+            classLoader.loadClass("test.MappersRecordMappers").getConstructor().newInstance();
+    Class<?> place = classLoader.loadClass("test.Place");
+    return mappers.recordMappers().get(place).apply(result.recordType()).map(result.get(0));
+  }
+
+  private static class CompiledClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes = new HashMap<>();
+
+    private CompiledClassLoader(Compilation compilation) throws IOException {
+      super(RecordMapperProcessorTest.class.getClassLoader());
+      for (JavaFileObject file : compilation.generatedFiles()) {
+        if (file.getKind() != JavaFileObject.Kind.CLASS) {
+          continue;
+        }
+        String path = file.toUri().getPath();
+        String className =
+            path.substring(path.indexOf('/', 1) + 1, path.length() - ".class".length())
+                .replace('/', '.');
+        try (InputStream is = file.openInputStream()) {
+          classes.put(className, is.readAllBytes());
+        }
+      }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classes.get(name);
+      if (bytes == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
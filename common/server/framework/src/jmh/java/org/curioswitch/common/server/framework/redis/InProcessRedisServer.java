@@ -0,0 +1,335 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.linecorp.armeria.common.CommonPools;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.protocol.ProtocolVersion;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A minimal in-process server speaking the redis protocol (RESP2), so benchmarks of the remote
+ * cache paths can run without a redis server. Supports only the commands used by the redis
+ * package, i.e. GET, MGET, SET (with PX and NX), DEL, PTTL and PUBLISH, with no persistence or
+ * eviction. Clients must use RESP2 since HELLO is not supported.
+ *
+ * <p>The server runs on its own event loop, so benchmarks include real socket round trips and
+ * protocol encoding but not the latency of a real network or of redis itself.
+ */
+final class InProcessRedisServer implements AutoCloseable {
+
+  private final Map<ByteBuffer, Entry> values = new ConcurrentHashMap<>();
+  private final EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+  private final Channel serverChannel;
+
+  InProcessRedisServer() {
+    serverChannel =
+        new ServerBootstrap()
+            .group(eventLoopGroup)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(
+                new ChannelInitializer<SocketChannel>() {
+                  @Override
+                  protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new CommandDecoder(), new CommandHandler());
+                  }
+                })
+            .bind("127.0.0.1", 0)
+            .syncUninterruptibly()
+            .channel();
+  }
+
+  /** Returns the redis url to connect to this server. */
+  String url() {
+    return "redis://127.0.0.1:" + ((InetSocketAddress) serverChannel.localAddress()).getPort();
+  }
+
+  /**
+   * Returns a new {@link RedisClient} for this server, using the armeria event loops like {@link
+   * RedisModule}.
+   */
+  RedisClient newClient() {
+    RedisClient client =
+        RedisClient.create(
+            DefaultClientResources.builder()
+                .eventExecutorGroup(CommonPools.workerGroup())
+                .eventLoopGroupProvider(ArmeriaEventLoopGroupProvider.INSTANCE)
+                .build(),
+            url());
+    client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build());
+    return client;
+  }
+
+  /** Removes all values from this server. */
+  void clear() {
+    values.clear();
+  }
+
+  @Override
+  public void close() {
+    serverChannel.close().syncUninterruptibly();
+    eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+  }
+
+  private static class Entry {
+    private final byte[] value;
+    // 0 if the entry does not expire.
+    private final long expiresAtNanos;
+
+    private Entry(byte[] value, long expiresAtNanos) {
+      this.value = value;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    private long pttl() {
+      return expiresAtNanos == 0
+          ? -1
+          : TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+    }
+  }
+
+  @Nullable
+  private Entry getEntry(byte[] key) {
+    ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+    Entry entry = values.get(wrappedKey);
+    if (entry != null && entry.expiresAtNanos != 0 && entry.expiresAtNanos < System.nanoTime()) {
+      values.remove(wrappedKey, entry);
+      return null;
+    }
+    return entry;
+  }
+
+  private class CommandHandler extends SimpleChannelInboundHandler<List<byte[]>> {
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, List<byte[]> command) {
+      ByteBuf out = ctx.alloc().buffer();
+      execute(command, out);
+      // Flushed in channelReadComplete so pipelined commands are answered together.
+      ctx.write(out, ctx.voidPromise());
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+      ctx.flush();
+    }
+
+    private void execute(List<byte[]> command, ByteBuf out) {
+      String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+      switch (name) {
+        case "PING":
+          writeSimpleString("PONG", out);
+          return;
+        case "AUTH":
+        case "CLIENT":
+        case "SELECT":
+          writeSimpleString("OK", out);
+          return;
+        case "GET":
+          writeBulkString(getEntry(command.get(1)), out);
+          return;
+        case "MGET":
+          writeArrayHeader(command.size() - 1, out);
+          for (int i = 1; i < command.size(); i++) {
+            writeBulkString(getEntry(command.get(i)), out);
+          }
+          return;
+        case "SET":
+          set(command, out);
+          return;
+        case "DEL":
+          int deleted = 0;
+          for (int i = 1; i < command.size(); i++) {
+            if (getEntry(command.get(i)) != null
+                && values.remove(ByteBuffer.wrap(command.get(i))) != null) {
+              deleted++;
+            }
+          }
+          writeInteger(deleted, out);
+          return;
+        case "PTTL":
+          Entry entry = getEntry(command.get(1));
+          writeInteger(entry != null ? entry.pttl() : -2, out);
+          return;
+        case "PUBLISH":
+          // There are no subscribers.
+          writeInteger(0, out);
+          return;
+        default:
+          writeError("ERR unknown command '" + name + "'", out);
+      }
+    }
+
+    private void set(List<byte[]> command, ByteBuf out) {
+      long expiresAtNanos = 0;
+      boolean onlyIfAbsent = false;
+      for (int i = 3; i < command.size(); i++) {
+        String option = new String(command.get(i), StandardCharsets.US_ASCII);
+        if (option.equalsIgnoreCase("PX")) {
+          long ttlMillis = Long.parseLong(new String(command.get(++i), StandardCharsets.US_ASCII));
+          expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        } else if (option.equalsIgnoreCase("NX")) {
+          onlyIfAbsent = true;
+        } else {
+          writeError("ERR unsupported SET option '" + option + "'", out);
+          return;
+        }
+      }
+      ByteBuffer key = ByteBuffer.wrap(command.get(1));
+      Entry entry = new Entry(command.get(2), expiresAtNanos);
+      if (onlyIfAbsent) {
+        // Clears an expired entry so it doesn't block the write.
+        getEntry(command.get(1));
+        if (values.putIfAbsent(key, entry) != null) {
+          writeBulkString((byte[]) null, out);
+          return;
+        }
+      } else {
+        values.put(key, entry);
+      }
+      writeSimpleString("OK", out);
+    }
+  }
+
+  private static void writeSimpleString(String value, ByteBuf out) {
+    out.writeByte('+');
+    out.writeCharSequence(value, StandardCharsets.US_ASCII);
+    writeCrlf(out);
+  }
+
+  private static void writeError(String message, ByteBuf out) {
+    out.writeByte('-');
+    out.writeCharSequence(message, StandardCharsets.US_ASCII);
+    writeCrlf(out);
+  }
+
+  private static void writeInteger(long value, ByteBuf out) {
+    out.writeByte(':');
+    out.writeCharSequence(Long.toString(value), StandardCharsets.US_ASCII);
+    writeCrlf(out);
+  }
+
+  private static void writeArrayHeader(int size, ByteBuf out) {
+    out.writeByte('*');
+    out.writeCharSequence(Integer.toString(size), StandardCharsets.US_ASCII);
+    writeCrlf(out);
+  }
+
+  private static void writeBulkString(@Nullable Entry entry, ByteBuf out) {
+    writeBulkString(entry != null ? entry.value : null, out);
+  }
+
+  private static void writeBulkString(@Nullable byte[] value, ByteBuf out) {
+    out.writeByte('$');
+    if (value == null) {
+      out.writeCharSequence("-1", StandardCharsets.US_ASCII);
+      writeCrlf(out);
+      return;
+    }
+    out.writeCharSequence(Integer.toString(value.length), StandardCharsets.US_ASCII);
+    writeCrlf(out);
+    out.writeBytes(value);
+    writeCrlf(out);
+  }
+
+  private static void writeCrlf(ByteBuf out) {
+    out.writeByte('\r');
+    out.writeByte('\n');
+  }
+
+  /** Decodes commands, which clients always send as arrays of bulk strings. */
+  private static class CommandDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+      int start = in.readerIndex();
+      List<byte[]> command = readCommand(in);
+      if (command == null) {
+        // Wait for the rest of the command.
+        in.readerIndex(start);
+        return;
+      }
+      out.add(command);
+    }
+
+    @Nullable
+    private static List<byte[]> readCommand(ByteBuf in) {
+      long numArgs = readLength('*', in);
+      if (numArgs < 0) {
+        return null;
+      }
+      List<byte[]> command = new ArrayList<>((int) numArgs);
+      for (int i = 0; i < numArgs; i++) {
+        long length = readLength('$', in);
+        if (length < 0 || in.readableBytes() < length + 2) {
+          return null;
+        }
+        byte[] arg = new byte[(int) length];
+        in.readBytes(arg);
+        in.skipBytes(2);
+        command.add(arg);
+      }
+      return command;
+    }
+
+    // Returns -1 if the line is not complete yet.
+    private static long readLength(char type, ByteBuf in) {
+      int lineEnd = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+      if (lineEnd < 0) {
+        return -1;
+      }
+      checkState(in.readByte() == type, "Unexpected RESP type, expected %s.", type);
+      // Excludes the \r before the \n.
+      CharSequence length =
+          in.readCharSequence(lineEnd - 1 - in.readerIndex(), StandardCharsets.US_ASCII);
+      in.readerIndex(lineEnd + 1);
+      return Long.parseLong(length.toString());
+    }
+  }
+}
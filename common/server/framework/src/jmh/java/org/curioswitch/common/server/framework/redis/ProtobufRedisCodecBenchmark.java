@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.StringValue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for {@link ProtobufRedisCodec}. Run with the gc profiler to compare allocation rate
+ * between the {@link ByteBuffer} methods and the pooled {@link ByteBuf} methods lettuce uses.
+ */
+@State(Scope.Benchmark)
+public class ProtobufRedisCodecBenchmark {
+
+  private static final StringValue KEY = StringValue.newBuilder().setValue("benchmark-key").build();
+
+  @Param({"16", "102400"})
+  private int valueSize;
+
+  private ProtobufRedisCodec<StringValue, BytesValue> codec;
+  private BytesValue value;
+  private ByteBuffer serializedValue;
+
+  @Setup
+  public void setUp() {
+    codec =
+        new ProtobufRedisCodec<>(
+            "benchmark:".getBytes(StandardCharsets.UTF_8),
+            StringValue.getDefaultInstance(),
+            BytesValue.getDefaultInstance());
+    byte[] bytes = new byte[valueSize];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    value = BytesValue.newBuilder().setValue(ByteString.copyFrom(bytes)).build();
+    serializedValue = ByteBuffer.wrap(value.toByteArray()).asReadOnlyBuffer();
+  }
+
+  @Benchmark
+  public ByteBuffer encodeKeyByteBuffer() {
+    return codec.encodeKey(KEY);
+  }
+
+  @Benchmark
+  public int encodeKeyPooled() {
+    ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(codec.estimateSize(KEY));
+    try {
+      codec.encodeKey(KEY, buf);
+      return buf.readableBytes();
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encodeValueByteBuffer() {
+    return codec.encodeValue(value);
+  }
+
+  @Benchmark
+  public int encodeValuePooled() {
+    ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(codec.estimateSize(value));
+    try {
+      codec.encodeValue(value, buf);
+      return buf.readableBytes();
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Benchmark
+  public BytesValue decodeValue() {
+    return codec.decodeValue(serializedValue.duplicate());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.StringValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for {@link ProtobufRedisLoadingCache#get(com.google.protobuf.Message, Function)} on
+ * its three paths - a hit in the local cache, a hit in the remote cache, and a miss which calls
+ * the loader and writes the value to the remote cache. The remote cache is an {@link
+ * InProcessRedisServer}.
+ */
+@State(Scope.Benchmark)
+public class ProtobufRedisLoadingCacheBenchmark {
+
+  private static final StringValue KEY = StringValue.newBuilder().setValue("benchmark-key").build();
+  private static final Duration TTL = Duration.ofHours(1);
+
+  private final AtomicLong missCounter = new AtomicLong();
+
+  private InProcessRedisServer server;
+  private RedisClient client;
+  private StatefulRedisConnection<StringValue, BytesValue> connection;
+  private RemoteCache<StringValue, BytesValue> remote;
+  private BytesValue value;
+  private Function<StringValue, ListenableFuture<BytesValue>> loader;
+
+  private ProtobufRedisLoadingCache<StringValue, BytesValue> localAndRemoteCache;
+  private ProtobufRedisLoadingCache<StringValue, BytesValue> remoteOnlyCache;
+
+  @Setup
+  public void setUp() {
+    server = new InProcessRedisServer();
+    client = server.newClient();
+    connection =
+        client.connect(
+            new ProtobufRedisCodec<>(
+                "benchmark:".getBytes(StandardCharsets.UTF_8),
+                StringValue.getDefaultInstance(),
+                BytesValue.getDefaultInstance()));
+    MeterRegistry registry = new SimpleMeterRegistry();
+    remote = new RedisRemoteCache<>(connection.async(), "benchmark", registry, false, false);
+
+    byte[] bytes = new byte[128];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    value = BytesValue.newBuilder().setValue(ByteString.copyFrom(bytes)).build();
+    loader = unused -> Futures.immediateFuture(value);
+
+    localAndRemoteCache =
+        new ProtobufRedisLoadingCache<>(
+            StringValue.getDefaultInstance(),
+            BytesValue.getDefaultInstance(),
+            new RedisCacheOptions.Builder()
+                .redisTtl(TTL)
+                .localCacheSpec(CaffeineSpec.parse("maximumSize=1000"))
+                .build(),
+            new CacheMetrics("localAndRemote", registry),
+            remote,
+            null,
+            null);
+    remoteOnlyCache =
+        new ProtobufRedisLoadingCache<>(
+            StringValue.getDefaultInstance(),
+            BytesValue.getDefaultInstance(),
+            new RedisCacheOptions.Builder().redisTtl(TTL).build(),
+            new CacheMetrics("remoteOnly", registry),
+            remote,
+            null,
+            null);
+  }
+
+  // Values written by misses are cleared every iteration to keep the size of the server bounded.
+  @Setup(Level.Iteration)
+  public void resetServer() {
+    server.clear();
+    remote.set(KEY, value, SetArgs.Builder.px(TTL.toMillis())).toCompletableFuture().join();
+    Futures.getUnchecked(localAndRemoteCache.get(KEY, loader));
+  }
+
+  @TearDown
+  public void tearDown() {
+    connection.close();
+    client.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public BytesValue localHit() {
+    return Futures.getUnchecked(localAndRemoteCache.get(KEY, loader));
+  }
+
+  @Benchmark
+  public BytesValue remoteHit() {
+    return Futures.getUnchecked(remoteOnlyCache.get(KEY, loader));
+  }
+
+  @Benchmark
+  public BytesValue miss() {
+    StringValue key =
+        StringValue.newBuilder().setValue("miss-" + missCounter.incrementAndGet()).build();
+    return Futures.getUnchecked(remoteOnlyCache.get(key, loader));
+  }
+}
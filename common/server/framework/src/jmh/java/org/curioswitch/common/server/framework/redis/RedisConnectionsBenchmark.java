@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.StringValue;
+import com.linecorp.armeria.common.CommonPools;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Benchmarks throughput of a remote cache with a varying number of connections, with many requests
+ * in flight as on a busy server. By default runs against an {@link InProcessRedisServer}, which
+ * can be replaced by a real redis server by setting {@code redisUrl}, e.g. {@code
+ * redis://localhost:6379} for one started with {@code docker run -p 6379:6379 redis}.
+ */
+@State(Scope.Benchmark)
+public class RedisConnectionsBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+  private static final int REQUESTS_IN_FLIGHT = 256;
+
+  @Param({"1", "2", "4", "8"})
+  private int connections;
+
+  // If empty, an in-process server is used.
+  @Param("")
+  private String redisUrl;
+
+  @Nullable private InProcessRedisServer server;
+  private RedisClient client;
+  private List<StatefulRedisConnection<StringValue, BytesValue>> openConnections;
+  private RemoteCache<StringValue, BytesValue> cache;
+  private StringValue[] keys;
+
+  @Setup
+  public void setUp() {
+    if (redisUrl.isEmpty()) {
+      server = new InProcessRedisServer();
+      client = server.newClient();
+    } else {
+      client =
+          RedisClient.create(
+              DefaultClientResources.builder()
+                  .eventExecutorGroup(CommonPools.workerGroup())
+                  .eventLoopGroupProvider(ArmeriaEventLoopGroupProvider.INSTANCE)
+                  .build(),
+              redisUrl);
+    }
+    ProtobufRedisCodec<StringValue, BytesValue> codec =
+        new ProtobufRedisCodec<>(
+            "benchmark:".getBytes(StandardCharsets.UTF_8),
+            StringValue.getDefaultInstance(),
+            BytesValue.getDefaultInstance());
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    openConnections = new ArrayList<>();
+    ImmutableList.Builder<RemoteCache<StringValue, BytesValue>> shards = ImmutableList.builder();
+    for (int i = 0; i < connections; i++) {
+      StatefulRedisConnection<StringValue, BytesValue> connection = client.connect(codec);
+      openConnections.add(connection);
+      shards.add(new RedisRemoteCache<>(connection.async(), "benchmark", registry, false, false));
+    }
+    cache = new ShardedRemoteCache<>(shards.build());
+
+    byte[] bytes = new byte[128];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    BytesValue value = BytesValue.newBuilder().setValue(ByteString.copyFrom(bytes)).build();
+    keys = new StringValue[NUM_KEYS];
+    for (int i = 0; i < NUM_KEYS; i++) {
+      keys[i] = StringValue.newBuilder().setValue("key" + i).build();
+      cache.set(keys[i], value, SetArgs.Builder.ex(3600)).toCompletableFuture().join();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    openConnections.forEach(StatefulRedisConnection::close);
+    client.shutdown();
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  @OperationsPerInvocation(REQUESTS_IN_FLIGHT)
+  public void get() {
+    CompletableFuture<?>[] results = new CompletableFuture<?>[REQUESTS_IN_FLIGHT];
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < REQUESTS_IN_FLIGHT; i++) {
+      results[i] = cache.get(keys[random.nextInt(NUM_KEYS)]).toCompletableFuture();
+    }
+    CompletableFuture.allOf(results).join();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.StringValue;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for the round trips of {@link RedisRemoteCache} against an {@link
+ * InProcessRedisServer}, one request at a time. This measures the overhead of the client, codec
+ * and metrics rather than of redis.
+ */
+@State(Scope.Benchmark)
+public class RedisRemoteCacheBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+  private static final int MGET_SIZE = 16;
+  private static final SetArgs SET_ARGS = SetArgs.Builder.px(3_600_000);
+
+  @Param({"16", "4096"})
+  private int valueSize;
+
+  private InProcessRedisServer server;
+  private RedisClient client;
+  private StatefulRedisConnection<StringValue, BytesValue> connection;
+  private RemoteCache<StringValue, BytesValue> cache;
+  private StringValue[] keys;
+  private BytesValue value;
+
+  @Setup
+  public void setUp() {
+    server = new InProcessRedisServer();
+    client = server.newClient();
+    connection =
+        client.connect(
+            new ProtobufRedisCodec<>(
+                "benchmark:".getBytes(StandardCharsets.UTF_8),
+                StringValue.getDefaultInstance(),
+                BytesValue.getDefaultInstance()));
+    cache =
+        new RedisRemoteCache<>(
+            connection.async(), "benchmark", new SimpleMeterRegistry(), false, false);
+
+    byte[] bytes = new byte[valueSize];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    value = BytesValue.newBuilder().setValue(ByteString.copyFrom(bytes)).build();
+    keys = new StringValue[NUM_KEYS];
+    for (int i = 0; i < NUM_KEYS; i++) {
+      keys[i] = StringValue.newBuilder().setValue("key" + i).build();
+      cache.set(keys[i], value, SET_ARGS).toCompletableFuture().join();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    connection.close();
+    client.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public BytesValue get() {
+    return cache.get(randomKey()).toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public List<KeyValue<StringValue, BytesValue>> mget() {
+    ImmutableList.Builder<StringValue> mgetKeys = ImmutableList.builderWithExpectedSize(MGET_SIZE);
+    for (int i = 0; i < MGET_SIZE; i++) {
+      mgetKeys.add(randomKey());
+    }
+    return cache.mget(mgetKeys.build()).toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public String set() {
+    return cache.set(randomKey(), value, SET_ARGS).toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public Long pttl() {
+    return cache.pttl(randomKey()).toCompletableFuture().join();
+  }
+
+  private StringValue randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(NUM_KEYS)];
+  }
+}
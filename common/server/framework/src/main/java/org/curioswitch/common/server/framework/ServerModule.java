@@ -91,7 +91,6 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
-import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Executor;
@@ -220,6 +219,9 @@ public abstract class ServerModule {
   @Multibinds
   abstract Set<ServerShutDownDelayer> serverShutDownDelayers();
 
+  @Multibinds
+  abstract Set<HealthChecker> healthCheckers();
+
   @BindsOptionalOf
   abstract SslCommonNamesProvider sslCommonNamesProvider();
 
@@ -327,6 +329,7 @@ public abstract class ServerModule {
       MonitoringConfig monitoringConfig,
       SecurityConfig securityConfig,
       Set<ServerShutDownDelayer> serverShutDownDelayers,
+      Set<HealthChecker> additionalHealthCheckers,
       @CloseOnStop Set<Closeable> closeOnStopDependencies,
       // Eagerly trigger bindings that are present, not actually used here.
       @EagerInit Set<Object> eagerInitializedDependencies) {
@@ -401,14 +404,15 @@ public abstract class ServerModule {
     }
 
     SettableHealthChecker settableHealthChecker = new SettableHealthChecker(true);
-    List<HealthChecker> healthCheckers =
-        serverShutDownDelayers.isEmpty()
-            ? ImmutableList.of()
-            : ImmutableList.of(settableHealthChecker);
+    ImmutableList.Builder<HealthChecker> healthCheckers = ImmutableList.builder();
+    if (!serverShutDownDelayers.isEmpty()) {
+      healthCheckers.add(settableHealthChecker);
+    }
+    healthCheckers.addAll(additionalHealthCheckers);
 
     sb.service(
         "/internal/health",
-        internalService(HealthCheckService.of(healthCheckers), ipFilter, serverConfig));
+        internalService(HealthCheckService.of(healthCheckers.build()), ipFilter, serverConfig));
     sb.service("/internal/dropwizard", internalService(metricsHttpService, ipFilter, serverConfig));
     sb.service(
         "/internal/metrics",
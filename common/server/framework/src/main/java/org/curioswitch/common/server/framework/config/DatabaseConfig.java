@@ -25,6 +25,7 @@
 package org.curioswitch.common.server.framework.config;
 
 import java.time.Duration;
+import java.util.List;
 import org.curioswitch.common.server.framework.immutables.JavaBeanStyle;
 import org.immutables.value.Value.Immutable;
 import org.immutables.value.Value.Modifiable;
@@ -35,6 +36,18 @@ import org.immutables.value.Value.Modifiable;
 @JavaBeanStyle
 public interface DatabaseConfig {
 
+  /** The type of executor used to run blocking database calls. */
+  enum ExecutorType {
+    /** A fixed pool of 20 threads. */
+    FIXED,
+    /**
+     * A new virtual thread for each call when the Java runtime supports them, otherwise a pool of
+     * threads created as needed. At most {@link #getMaximumPoolSize()} calls run at a time, with
+     * the rest queued without occupying a thread.
+     */
+    VIRTUAL,
+  }
+
   /** The JDBC connection URL to connect to. */
   String getJdbcUrl();
 
@@ -53,6 +66,18 @@ public interface DatabaseConfig {
   /** Whether to log all queries to INFO level. */
   boolean getLogQueries();
 
+  /**
+   * Whether to record metrics for each query, i.e. its latency and the number of rows it fetched,
+   * tagged by the query's SQL without values. Disabled by default.
+   */
+  boolean getRecordQueryMetrics();
+
+  /** Queries taking at least this long are logged as slow queries. 0 disables this logging. */
+  Duration getSlowQueryThreshold();
+
+  /** The fraction of slow queries to log, between 0 and 1. */
+  double getSlowQueryLogSampleRate();
+
   /**
    * The max lifetime for database connections. Should be less than the wait_timeout setting in the
    * DB itself.
@@ -70,4 +95,58 @@ public interface DatabaseConfig {
    * may be needed to support automatic database failover.
    */
   Duration getSocketTimeout();
+
+  /** The maximum number of connections in the connection pool. */
+  int getMaximumPoolSize();
+
+  /** The type of executor used to run blocking database calls. */
+  ExecutorType getExecutorType();
+
+  /**
+   * Whether to limit the number of concurrent database calls, with a limit that adapts to their
+   * latency. Calls over the limit fail immediately with {@code UNAVAILABLE}.
+   */
+  boolean isAdaptiveConcurrencyLimit();
+
+  /** The minimum, and initial, adaptive concurrency limit. */
+  int getMinConcurrencyLimit();
+
+  /** The maximum adaptive concurrency limit. */
+  int getMaxConcurrencyLimit();
+
+  /**
+   * JDBC connection URLs of read replicas of the database, queried by the {@code @ForReadReplica}
+   * {@code DSLContext} with their own connection pools. If empty, it queries the primary database
+   * instead. Replicas are connected to with the same username and password as the primary.
+   */
+  List<String> getReadReplicaJdbcUrls();
+
+  /**
+   * The maximum replication lag of a read replica for it to be queried. If all replicas are lagging
+   * more than this, the primary database is queried instead.
+   */
+  Duration getMaxReplicationLag();
+
+  /** The interval at which to check the replication lag of read replicas. */
+  Duration getReplicationLagCheckInterval();
+
+  /**
+   * The Caffeine spec of the cache of query results used by {@code QueryResultCache}, e.g.
+   * 'maximumSize=10000,expireAfterWrite=10s'. Should include a short expiration since writes by
+   * other servers are not seen. If empty, results are not cached.
+   */
+  String getQueryResultCacheSpec();
+
+  /**
+   * Whether to warm up the database on startup, by filling the connection pools to their minimum
+   * size and preparing the queries bound with {@code WarmUpQuery} on each connection. The server
+   * reports itself unhealthy until warm-up finishes. Disabled by default.
+   */
+  boolean isWarmUp();
+
+  /**
+   * The maximum time to wait for warm-up to finish. After this, the server reports itself healthy
+   * even if warm-up has not finished.
+   */
+  Duration getWarmUpTimeout();
 }
@@ -24,6 +24,7 @@
 
 package org.curioswitch.common.server.framework.config;
 
+import java.time.Duration;
 import org.curioswitch.common.server.framework.immutables.JavaBeanStyle;
 import org.immutables.value.Value.Immutable;
 import org.immutables.value.Value.Modifiable;
@@ -48,4 +49,23 @@ public interface RedisConfig {
    * development.
    */
   boolean isNoop();
+
+  /**
+   * Whether the redis cluster topology should be refreshed when redis indicates it has changed,
+   * e.g. with MOVED redirects or failed reconnects. Only used with redis cluster.
+   */
+  boolean isAdaptiveTopologyRefresh();
+
+  /**
+   * The interval at which to periodically refresh the redis cluster topology. If 0, the topology is
+   * not refreshed periodically. Only used with redis cluster.
+   */
+  Duration getTopologyRefreshPeriod();
+
+  /**
+   * Whether caches that allow reading from replicas should read from the replicas with the lowest
+   * measured command latency instead of the nearest replica as determined by topology refresh.
+   * Only used with redis cluster.
+   */
+  boolean isLatencyAwareReads();
 }
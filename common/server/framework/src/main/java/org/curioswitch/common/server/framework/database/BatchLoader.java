@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.linecorp.armeria.common.CommonPools;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A loader which batches point lookups, e.g., {@code SELECT ... WHERE id = ?}, that are requested
+ * concurrently into a single call of a {@link BatchFunction}, e.g., {@code SELECT ... WHERE id IN
+ * (...)}. Keys requested within {@code window} of the first key of a batch, up to {@code
+ * maxBatchSize}, are loaded together on the provided {@link Executor}, normally the {@link
+ * ForDatabase} executor. Keys that are requested before the batch starts executing are also
+ * added to it, so batches naturally grow when the executor is busy.
+ *
+ * <p>A {@link BatchLoader} should generally be a singleton so lookups from concurrent requests can
+ * share a batch.
+ *
+ * <p>Because a batch serves multiple requests, it does not run in the context of any of them, so
+ * e.g., the database span of a batch is not part of a request's trace.
+ */
+public final class BatchLoader<K, V> {
+
+  /** Loads the values for a batch of keys. */
+  @FunctionalInterface
+  public interface BatchFunction<K, V> {
+    /**
+     * Returns the values for {@code keys}. Keys without a value can be omitted from the returned
+     * {@link Map}, and will be loaded as {@code null}. Returning {@code null} fails the batch.
+     */
+    Map<K, V> load(Set<K> keys) throws Exception;
+  }
+
+  /**
+   * Returns a {@link BatchLoader} which batches keys requested within {@code window}, up to {@code
+   * maxBatchSize} keys, and loads them with {@code batchFunction} on {@code executor}.
+   */
+  public static <K, V> BatchLoader<K, V> create(
+      BatchFunction<K, V> batchFunction, Executor executor, Duration window, int maxBatchSize) {
+    return new BatchLoader<>(
+        batchFunction, executor, CommonPools.workerGroup(), window, maxBatchSize);
+  }
+
+  private final BatchFunction<K, V> batchFunction;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final long windowNanos;
+  private final int maxBatchSize;
+
+  private final Object lock = new Object();
+
+  @Nullable private Batch currentBatch;
+
+  BatchLoader(
+      BatchFunction<K, V> batchFunction,
+      Executor executor,
+      ScheduledExecutorService scheduler,
+      Duration window,
+      int maxBatchSize) {
+    checkArgument(!window.isNegative(), "window must not be negative");
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    this.batchFunction = batchFunction;
+    this.executor = executor;
+    this.scheduler = scheduler;
+    windowNanos = window.toNanos();
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Returns a {@link ListenableFuture} completed with the value for {@code key}, or {@code null} if
+   * there is none, once the batch containing it has been loaded.
+   */
+  public ListenableFuture<V> load(K key) {
+    final Batch batch;
+    final SettableFuture<V> future;
+    final boolean newBatch;
+    final boolean fullBatch;
+    synchronized (lock) {
+      newBatch = currentBatch == null;
+      if (newBatch) {
+        currentBatch = new Batch();
+      }
+      batch = currentBatch;
+      future = batch.futures.computeIfAbsent(key, unused -> SettableFuture.create());
+      fullBatch = batch.futures.size() >= maxBatchSize;
+      if (fullBatch) {
+        currentBatch = null;
+      }
+    }
+
+    if (fullBatch) {
+      dispatch(batch);
+    } else if (newBatch) {
+      if (windowNanos == 0) {
+        dispatch(batch);
+      } else {
+        scheduler.schedule(() -> dispatch(batch), windowNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    // The future may be shared by multiple callers of the same key, so don't let one of them
+    // cancel it for the others.
+    return Futures.nonCancellationPropagating(future);
+  }
+
+  private void dispatch(Batch batch) {
+    try {
+      executor.execute(batch);
+    } catch (RejectedExecutionException e) {
+      if (batch.start()) {
+        batch.fail(e);
+      }
+    }
+  }
+
+  private final class Batch implements Runnable {
+
+    private final Map<K, SettableFuture<V>> futures = new LinkedHashMap<>();
+
+    private boolean started;
+
+    @Override
+    public void run() {
+      if (!start()) {
+        return;
+      }
+
+      final Map<K, V> values;
+      try {
+        values =
+            checkNotNull(
+                batchFunction.load(ImmutableSet.copyOf(futures.keySet())),
+                "batchFunction returned null.");
+      } catch (Throwable t) {
+        fail(t);
+        return;
+      }
+      futures.forEach((key, future) -> future.set(values.get(key)));
+    }
+
+    /**
+     * Closes this batch to new keys, returning whether this is the first call, i.e., the batch
+     * should be loaded. A batch can be dispatched both when its window expires and when it becomes
+     * full.
+     */
+    private boolean start() {
+      synchronized (lock) {
+        if (started) {
+          return false;
+        }
+        started = true;
+        if (currentBatch == this) {
+          currentBatch = null;
+        }
+        return true;
+      }
+    }
+
+    private void fail(Throwable t) {
+      futures.values().forEach(future -> future.setException(t));
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ExecutorService} which rejects tasks once the number of tasks in flight on its
+ * delegate reaches a {@link GradientConcurrencyLimit}, so a slow database sheds load early instead
+ * of queueing requests until they all time out. Futures of rejected tasks fail with an {@link
+ * Status#UNAVAILABLE} status, which is returned to gRPC clients so they can retry, e.g. on another
+ * server. {@link #execute(Runnable)} throws a {@link RejectedExecutionException} caused by the
+ * status instead.
+ */
+final class ConcurrencyLimitingExecutorService extends AbstractListeningExecutorService {
+
+  private final ExecutorService delegate;
+  private final GradientConcurrencyLimit limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Counter rejectedTasks;
+
+  ConcurrencyLimitingExecutorService(
+      ExecutorService delegate, GradientConcurrencyLimit limit, MeterRegistry registry) {
+    this.delegate = delegate;
+    this.limit = limit;
+    rejectedTasks = registry.counter("database.rejectedTasks");
+    registry.gauge("database.concurrencyLimit", limit, GradientConcurrencyLimit::limit);
+    registry.gauge("database.inFlightTasks", inFlight);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (inFlight.incrementAndGet() > limit.limit()) {
+      inFlight.decrementAndGet();
+      rejectedTasks.increment();
+      throw new LimitExceededException();
+    }
+    long startNanos = System.nanoTime();
+    try {
+      delegate.execute(
+          () -> {
+            try {
+              command.run();
+            } finally {
+              limit.onSample(System.nanoTime() - startNanos, inFlight.getAndDecrement());
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      inFlight.decrementAndGet();
+      throw e;
+    }
+  }
+
+  @Override
+  public ListenableFuture<?> submit(Runnable task) {
+    try {
+      return super.submit(task);
+    } catch (LimitExceededException e) {
+      return immediateFailedFuture(e.getCause());
+    }
+  }
+
+  @Override
+  public <T> ListenableFuture<T> submit(Runnable task, T result) {
+    try {
+      return super.submit(task, result);
+    } catch (LimitExceededException e) {
+      return immediateFailedFuture(e.getCause());
+    }
+  }
+
+  @Override
+  public <T> ListenableFuture<T> submit(Callable<T> task) {
+    try {
+      return super.submit(task);
+    } catch (LimitExceededException e) {
+      return immediateFailedFuture(e.getCause());
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  private static final class LimitExceededException extends RejectedExecutionException {
+
+    private LimitExceededException() {
+      super(
+          "Database concurrency limit exceeded.",
+          Status.UNAVAILABLE
+              .withDescription("Database overloaded, try again later.")
+              .asRuntimeException());
+    }
+  }
+}
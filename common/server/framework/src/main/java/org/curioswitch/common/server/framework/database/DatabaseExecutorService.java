@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.linecorp.armeria.common.metric.MeterIdPrefix;
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ExecutorService} for blocking database calls which runs at most {@code maxConcurrency}
+ * tasks at a time on a delegate, queueing the rest without occupying a thread. This allows using
+ * an unbounded delegate, e.g. with a virtual thread per task, without more tasks waiting on the
+ * connection pool than it has connections. Records the time tasks spend queued and the number of
+ * active and queued tasks.
+ */
+final class DatabaseExecutorService extends AbstractExecutorService {
+
+  private static final MeterIdPrefix METER_ID_PREFIX = new MeterIdPrefix("database.executor");
+
+  private final ExecutorService delegate;
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final Queue<QueuedTask> queue = new ConcurrentLinkedQueue<>();
+  // Tracked separately since ConcurrentLinkedQueue.size() is O(n).
+  private final AtomicInteger queuedTasks = new AtomicInteger();
+  private final Timer queueDuration;
+
+  private volatile boolean shutdown;
+
+  DatabaseExecutorService(ExecutorService delegate, int maxConcurrency, MeterRegistry registry) {
+    checkArgument(maxConcurrency > 0, "maxConcurrency must be positive.");
+    this.delegate = delegate;
+    this.maxConcurrency = maxConcurrency;
+    permits = new Semaphore(maxConcurrency);
+    queueDuration =
+        MoreMeters.newTimer(
+            registry, METER_ID_PREFIX.name("queueDuration"), METER_ID_PREFIX.tags());
+    registry.gauge(
+        METER_ID_PREFIX.name("activeTasks"),
+        METER_ID_PREFIX.tags(),
+        this,
+        DatabaseExecutorService::activeTasks);
+    registry.gauge(METER_ID_PREFIX.name("queuedTasks"), METER_ID_PREFIX.tags(), queuedTasks);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Executor has been shut down.");
+    }
+    queue.add(new QueuedTask(command, System.nanoTime()));
+    queuedTasks.incrementAndGet();
+    drain();
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    maybeShutdownDelegate();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Runnable> pending = new ArrayList<>();
+    QueuedTask task;
+    while ((task = queue.poll()) != null) {
+      queuedTasks.decrementAndGet();
+      pending.add(task.command);
+    }
+    pending.addAll(delegate.shutdownNow());
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return shutdown && queue.isEmpty() && delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    // The delegate is shut down once all queued tasks have been started.
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  private int activeTasks() {
+    return maxConcurrency - permits.availablePermits();
+  }
+
+  private void drain() {
+    while (!queue.isEmpty() && permits.tryAcquire()) {
+      QueuedTask task = queue.poll();
+      if (task == null) {
+        // Another thread started the task, check the queue again in case one was added after the
+        // permit was taken.
+        permits.release();
+        continue;
+      }
+      queuedTasks.decrementAndGet();
+      try {
+        delegate.execute(() -> run(task));
+      } catch (RejectedExecutionException e) {
+        // Only happens when the delegate has been shut down, the task is dropped as it would have
+        // been by shutdownNow.
+        permits.release();
+      }
+    }
+  }
+
+  private void run(QueuedTask task) {
+    queueDuration.record(System.nanoTime() - task.queuedNanos, TimeUnit.NANOSECONDS);
+    try {
+      task.command.run();
+    } finally {
+      permits.release();
+      drain();
+      maybeShutdownDelegate();
+    }
+  }
+
+  private void maybeShutdownDelegate() {
+    if (shutdown && queue.isEmpty()) {
+      delegate.shutdown();
+    }
+  }
+
+  private static class QueuedTask {
+    private final Runnable command;
+    private final long queuedNanos;
+
+    private QueuedTask(Runnable command, long queuedNanos) {
+      this.command = command;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+}
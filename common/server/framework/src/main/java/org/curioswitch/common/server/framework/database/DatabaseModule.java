@@ -24,9 +24,14 @@
 
 package org.curioswitch.common.server.framework.database;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.linecorp.armeria.server.healthcheck.HealthChecker;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigBeanFactory;
 import com.zaxxer.hikari.HikariConfig;
@@ -37,28 +42,48 @@ import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.ElementsIntoSet;
 import dagger.multibindings.IntoSet;
+import dagger.multibindings.Multibinds;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.curioswitch.common.server.framework.ApplicationModule;
 import org.curioswitch.common.server.framework.armeria.CurrentRequestContextForwardingExecutorService;
 import org.curioswitch.common.server.framework.config.DatabaseConfig;
 import org.curioswitch.common.server.framework.config.ModifiableDatabaseConfig;
 import org.curioswitch.common.server.framework.inject.CloseOnStop;
 import org.curioswitch.common.server.framework.inject.EagerInit;
+import org.curioswitch.common.server.framework.monitoring.MonitoringModule;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteListener;
+import org.jooq.Query;
 import org.jooq.SQLDialect;
 import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
 import org.jooq.impl.DataSourceConnectionProvider;
 import org.jooq.impl.DefaultConfiguration;
 
-@Module(includes = ApplicationModule.class)
+@Module(includes = {ApplicationModule.class, MonitoringModule.class})
 public abstract class DatabaseModule {
 
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final int NUM_FIXED_THREADS = 20;
+
+  @Multibinds
+  @WarmUpQuery
+  abstract Set<Query> warmUpQueries();
+
   @Provides
   @Singleton
   static DatabaseConfig dbConfig(Config config) {
@@ -69,19 +94,155 @@ public abstract class DatabaseModule {
   @Provides
   @ForDatabase
   @Singleton
-  static ListeningExecutorService dbExecutor() {
-    return new CurrentRequestContextForwardingExecutorService(
-        Executors.newFixedThreadPool(
-            20, new ThreadFactoryBuilder().setNameFormat("dbio-%d").setDaemon(true).build()));
+  static ListeningExecutorService dbExecutor(DatabaseConfig config, MeterRegistry registry) {
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setNameFormat("dbio-%d").setDaemon(true).build();
+    final ExecutorService executor;
+    switch (config.getExecutorType()) {
+      case FIXED:
+        executor =
+            new DatabaseExecutorService(
+                Executors.newFixedThreadPool(NUM_FIXED_THREADS, threadFactory),
+                NUM_FIXED_THREADS,
+                registry);
+        break;
+      case VIRTUAL:
+        executor =
+            new DatabaseExecutorService(
+                newVirtualThreadExecutor(threadFactory), config.getMaximumPoolSize(), registry);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown executor type: " + config.getExecutorType());
+    }
+    if (config.isAdaptiveConcurrencyLimit()) {
+      return new CurrentRequestContextForwardingExecutorService(
+          new ConcurrencyLimitingExecutorService(
+              executor,
+              new GradientConcurrencyLimit(
+                  config.getMinConcurrencyLimit(), config.getMaxConcurrencyLimit()),
+              registry));
+    }
+    return new CurrentRequestContextForwardingExecutorService(executor);
   }
 
   @Provides
   @Singleton
   static DataSource dataSource(DatabaseConfig config) {
+    return newDataSource(config, config.getJdbcUrl(), null);
+  }
+
+  @Provides
+  @ForReadReplica
+  @Singleton
+  static DataSource readReplicaDataSource(
+      DataSource dataSource, DatabaseConfig config, MeterRegistry registry) {
+    List<String> jdbcUrls = config.getReadReplicaJdbcUrls();
+    if (jdbcUrls.isEmpty()) {
+      return dataSource;
+    }
+    ImmutableList.Builder<HikariDataSource> replicas = ImmutableList.builder();
+    for (int i = 0; i < jdbcUrls.size(); i++) {
+      replicas.add(newDataSource(config, jdbcUrls.get(i), "read-replica-" + i));
+    }
+    return new ReadReplicaDataSource(
+        dataSource,
+        replicas.build(),
+        config.getMaxReplicationLag(),
+        config.getReplicationLagCheckInterval(),
+        registry);
+  }
+
+  @Provides
+  @Singleton
+  static QueryResultCache queryResultCache(DatabaseConfig config, MeterRegistry registry) {
+    if (config.getQueryResultCacheSpec().isEmpty()) {
+      return QueryResultCache.disabled();
+    }
+    return new QueryResultCache(CaffeineSpec.parse(config.getQueryResultCacheSpec()), registry);
+  }
+
+  @Provides
+  @Singleton
+  static DSLContext dbContext(
+      DataSource dataSource,
+      DatabaseConfig config,
+      @ForDatabase ListeningExecutorService dbExecutor,
+      QueryResultCache queryResultCache,
+      MeterRegistry registry) {
+    return newDbContext(dataSource, config, dbExecutor, queryResultCache, registry);
+  }
+
+  @Provides
+  @ForReadReplica
+  @Singleton
+  static DSLContext readReplicaDbContext(
+      @ForReadReplica DataSource dataSource,
+      DatabaseConfig config,
+      @ForDatabase ListeningExecutorService dbExecutor,
+      QueryResultCache queryResultCache,
+      MeterRegistry registry) {
+    return newDbContext(dataSource, config, dbExecutor, queryResultCache, registry);
+  }
+
+  @Binds
+  @EagerInit
+  @IntoSet
+  abstract Object init(DSLContext dslContext);
+
+  @SuppressWarnings("FutureReturnValueIgnored")
+  @Provides
+  @IntoSet
+  @Singleton
+  static HealthChecker warmUpHealthChecker(
+      DataSource dataSource,
+      @ForReadReplica DataSource readReplicaDataSource,
+      @WarmUpQuery Set<Query> warmUpQueries,
+      DSLContext db,
+      DatabaseConfig config,
+      @ForDatabase ListeningExecutorService dbExecutor) {
+    ImmutableList.Builder<HikariDataSource> dataSources = ImmutableList.builder();
+    if (config.isWarmUp()) {
+      dataSources.add((HikariDataSource) dataSource);
+      if (readReplicaDataSource instanceof ReadReplicaDataSource) {
+        dataSources.addAll(((ReadReplicaDataSource) readReplicaDataSource).replicaDataSources());
+      }
+    }
+    DatabaseWarmUp warmUp =
+        new DatabaseWarmUp(
+            dataSources.build(),
+            warmUpQueries.stream().map(db::render).collect(toImmutableList()));
+    warmUp.start(dbExecutor, config.getWarmUpTimeout());
+    return warmUp;
+  }
+
+  @Provides
+  @ElementsIntoSet
+  @CloseOnStop
+  static Set<Closeable> close(
+      DataSource dataSource, @ForDatabase ListeningExecutorService executor) {
+    return ImmutableSet.of((HikariDataSource) dataSource, executor::shutdownNow);
+  }
+
+  @Provides
+  @ElementsIntoSet
+  @CloseOnStop
+  static Set<Closeable> closeReadReplicas(@ForReadReplica DataSource dataSource) {
+    if (dataSource instanceof ReadReplicaDataSource) {
+      return ImmutableSet.of((ReadReplicaDataSource) dataSource);
+    }
+    return ImmutableSet.of();
+  }
+
+  private static HikariDataSource newDataSource(
+      DatabaseConfig config, String jdbcUrl, @Nullable String poolName) {
     HikariConfig hikari = new HikariConfig();
-    hikari.setJdbcUrl(config.getJdbcUrl());
+    if (poolName != null) {
+      hikari.setPoolName(poolName);
+    }
+    hikari.setJdbcUrl(jdbcUrl);
     hikari.setUsername(config.getUsername());
     hikari.setPassword(config.getPassword());
+    hikari.setMaximumPoolSize(config.getMaximumPoolSize());
     hikari.addDataSourceProperty("logger", "com.mysql.cj.log.Slf4JLogger");
     hikari.addDataSourceProperty("maxLifetime", config.getConnectionMaxLifetime().getSeconds());
     hikari.addDataSourceProperty("cachePrepStmts", true);
@@ -108,21 +269,37 @@ public abstract class DatabaseModule {
     return new HikariDataSource(hikari);
   }
 
-  @Provides
-  @Singleton
-  static DSLContext dbContext(
+  private static DSLContext newDbContext(
       DataSource dataSource,
       DatabaseConfig config,
-      @ForDatabase ListeningExecutorService dbExecutor) {
+      ListeningExecutorService dbExecutor,
+      QueryResultCache queryResultCache,
+      MeterRegistry registry) {
     Configuration configuration =
         new DefaultConfiguration()
             .set(dbExecutor)
             .set(SQLDialect.MYSQL)
             .set(new Settings().withRenderSchema(false))
             .set(new DataSourceConnectionProvider(dataSource))
-            .set(DatabaseUtil.sfmRecordMapperProvider());
+            .set(DatabaseUtil.recordMapperProvider());
+    List<ExecuteListener> listeners = new ArrayList<>();
+    if (config.getRecordQueryMetrics() || !config.getSlowQueryThreshold().isZero()) {
+      listeners.add(
+          new QueryMetricsListener(
+              registry,
+              config.getRecordQueryMetrics(),
+              config.getSlowQueryThreshold(),
+              config.getSlowQueryLogSampleRate()));
+    }
+    if (queryResultCache.isEnabled()) {
+      listeners.add(queryResultCache.invalidationListener());
+      configuration.set(queryResultCache.transactionListener());
+    }
     if (config.getLogQueries()) {
-      configuration.set(new QueryLogger());
+      listeners.add(new QueryLogger());
+    }
+    if (!listeners.isEmpty()) {
+      configuration.set(listeners.toArray(new ExecuteListener[0]));
     }
     DSLContext ctx = DSL.using(configuration);
     // Eagerly trigger JOOQ classinit for better startup performance.
@@ -130,17 +307,17 @@ public abstract class DatabaseModule {
     return ctx;
   }
 
-  @Binds
-  @EagerInit
-  @IntoSet
-  abstract Object init(DSLContext dslContext);
-
-  @Provides
-  @ElementsIntoSet
-  @CloseOnStop
-  static Set<Closeable> close(
-      DataSource dataSource, @ForDatabase ListeningExecutorService executor) {
-    return ImmutableSet.of((HikariDataSource) dataSource, executor::shutdownNow);
+  private static ExecutorService newVirtualThreadExecutor(ThreadFactory fallbackThreadFactory) {
+    try {
+      // Looked up reflectively since we compile for Java 11.
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      logger.info(
+          "Virtual threads not supported by the Java runtime, using a cached thread pool for the "
+              + "database executor.");
+      return Executors.newCachedThreadPool(fallbackThreadFactory);
+    }
   }
 
   private DatabaseModule() {}
@@ -25,6 +25,7 @@
 package org.curioswitch.common.server.framework.database;
 
 import org.curioswitch.common.server.framework.database.smf.CurioReflectionService;
+import org.jooq.RecordMapperProvider;
 import org.simpleflatmapper.jooq.JooqMapperFactory;
 import org.simpleflatmapper.jooq.SfmRecordMapperProvider;
 
@@ -38,6 +39,9 @@ public final class DatabaseUtil {
           .reflectionService(CurioReflectionService.newInstance())
           .newRecordMapperProvider();
 
+  private static final RecordMapperProvider RECORD_MAPPER_PROVIDER =
+      GeneratedRecordMapperProvider.load(MAPPER_PROVIDER);
+
   /**
    * Returns a {@link SfmRecordMapperProvider} configured to allow missing properties, which are
    * common when mapping from DB objects to business logic objects.
@@ -46,5 +50,14 @@ public final class DatabaseUtil {
     return MAPPER_PROVIDER;
   }
 
+  /**
+   * Returns a {@link RecordMapperProvider} which uses the mappers generated at build time for
+   * {@link GenerateRecordMappers}, falling back to {@link #sfmRecordMapperProvider()} for types
+   * without one.
+   */
+  public static RecordMapperProvider recordMapperProvider() {
+    return RECORD_MAPPER_PROVIDER;
+  }
+
   private DatabaseUtil() {}
 }
@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import com.google.common.base.Stopwatch;
+import com.linecorp.armeria.server.healthcheck.HealthChecker;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Warms up the database on startup so the first requests after a deploy don't pay for opening
+ * connections and preparing statements. Connections are opened by holding up to the pool's minimum
+ * idle size of them at once, but always leaving one for other callers, like health checks, and
+ * each query is prepared on every held connection, which caches it as a server-side prepared
+ * statement. Hikari fills the rest of the pool in the background. Reports unhealthy until warm-up
+ * finishes or times out, so traffic isn't routed to the server until then.
+ */
+final class DatabaseWarmUp implements HealthChecker {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final List<HikariDataSource> dataSources;
+  private final List<String> queries;
+
+  private volatile boolean done;
+
+  DatabaseWarmUp(List<HikariDataSource> dataSources, List<String> queries) {
+    this.dataSources = dataSources;
+    this.queries = queries;
+  }
+
+  /**
+   * Starts warming up on {@code executor}, completing the returned {@link CompletableFuture} when
+   * finished. Warm-up is best effort, so after {@code timeout} or an error the server is reported
+   * healthy anyway. Warm-up of each data source stops at the next connection or query after {@code
+   * timeout}, releasing the connections it holds.
+   */
+  CompletableFuture<Void> start(Executor executor, Duration timeout) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    long deadlineNanos = System.nanoTime() + timeout.toNanos();
+    return CompletableFuture.allOf(
+            dataSources.stream()
+                .map(
+                    dataSource ->
+                        CompletableFuture.runAsync(
+                            () -> warmUp(dataSource, deadlineNanos), executor))
+                .toArray(CompletableFuture[]::new))
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (unused, t) -> {
+              if (t != null) {
+                logger.warn("Database warm-up did not finish, continuing without it.", t);
+              } else {
+                logger.info("Database warm-up finished in {}.", stopwatch);
+              }
+              done = true;
+            });
+  }
+
+  @Override
+  public boolean isHealthy() {
+    return done;
+  }
+
+  private void warmUp(HikariDataSource dataSource, long deadlineNanos) {
+    // The minimum idle size defaults to the maximum pool size, so holding that many connections
+    // would block all other users of the pool until warm-up finishes.
+    int numConnections =
+        Math.max(1, Math.min(dataSource.getMinimumIdle(), dataSource.getMaximumPoolSize() - 1));
+    List<Connection> connections = new ArrayList<>();
+    try {
+      for (int i = 0; i < numConnections; i++) {
+        if (isPast(deadlineNanos)) {
+          return;
+        }
+        Connection connection = dataSource.getConnection();
+        connections.add(connection);
+        for (String query : queries) {
+          if (isPast(deadlineNanos)) {
+            return;
+          }
+          // Closing returns the statement to the connection's statement cache.
+          connection.prepareStatement(query).close();
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not warm up " + dataSource.getPoolName() + ".", e);
+    } finally {
+      for (Connection connection : connections) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          logger.warn("Could not close connection.", e);
+        }
+      }
+    }
+  }
+
+  private static boolean isPast(long deadlineNanos) {
+    return System.nanoTime() - deadlineNanos >= 0;
+  }
+}
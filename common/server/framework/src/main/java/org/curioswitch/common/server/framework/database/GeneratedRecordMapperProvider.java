@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.function.Function;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+import org.jooq.RecordMapperProvider;
+import org.jooq.RecordType;
+
+/**
+ * A {@link RecordMapperProvider} that returns the {@link RecordMapper}s generated at build time
+ * for {@link GenerateRecordMappers}, falling back to a delegate for any other type.
+ */
+final class GeneratedRecordMapperProvider implements RecordMapperProvider {
+
+  static GeneratedRecordMapperProvider load(RecordMapperProvider fallback) {
+    Map<Class<?>, Function<RecordType<?>, RecordMapper<Record, ?>>> mappers = new HashMap<>();
+    for (GeneratedRecordMappers generated :
+        ServiceLoader.load(
+            GeneratedRecordMappers.class, GeneratedRecordMappers.class.getClassLoader())) {
+      mappers.putAll(generated.recordMappers());
+    }
+    return new GeneratedRecordMapperProvider(ImmutableMap.copyOf(mappers), fallback);
+  }
+
+  private final Map<Class<?>, Function<RecordType<?>, RecordMapper<Record, ?>>> mappers;
+  private final RecordMapperProvider fallback;
+
+  GeneratedRecordMapperProvider(
+      Map<Class<?>, Function<RecordType<?>, RecordMapper<Record, ?>>> mappers,
+      RecordMapperProvider fallback) {
+    this.mappers = mappers;
+    this.fallback = fallback;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <R extends Record, E> RecordMapper<R, E> provide(
+      RecordType<R> recordType, Class<? extends E> type) {
+    // jOOQ provides a mapper once per result, so fields are only resolved once for all its records.
+    Function<RecordType<?>, RecordMapper<Record, ?>> mapper = mappers.get(type);
+    if (mapper != null) {
+      return (RecordMapper<R, E>) mapper.apply(recordType);
+    }
+    return fallback.provide(recordType, type);
+  }
+}
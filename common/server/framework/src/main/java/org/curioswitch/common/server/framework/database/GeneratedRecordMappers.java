@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+import org.jooq.RecordType;
+
+/**
+ * {@link RecordMapper}s generated at build time for the classes listed in a {@link
+ * GenerateRecordMappers}. Implementations are generated by {@code
+ * curio-server-framework-processor} and loaded with {@link java.util.ServiceLoader}, so should
+ * not need to be written by hand.
+ */
+public interface GeneratedRecordMappers {
+
+  /**
+   * Returns the index of the field named {@code fieldName} in {@code recordType}, or {@code -1} if
+   * there is no such field.
+   */
+  static int indexOf(RecordType<?> recordType, String fieldName) {
+    return recordType.indexOf(fieldName);
+  }
+
+  /**
+   * Returns the value at {@code index} in {@code record}, converted to {@code type}, or {@code
+   * null} if {@code index} is {@code -1}.
+   */
+  @Nullable
+  static <T> T get(Record record, int index, Class<T> type) {
+    return index >= 0 ? record.get(index, type) : null;
+  }
+
+  /**
+   * Returns a function for each generated class which creates the {@link RecordMapper} for records
+   * of a {@link RecordType}, resolving the index of each field once rather than for every record.
+   */
+  Map<Class<?>, Function<RecordType<?>, RecordMapper<Record, ?>>> recordMappers();
+}
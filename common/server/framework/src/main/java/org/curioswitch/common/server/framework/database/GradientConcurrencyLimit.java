@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A concurrency limit which adapts to the latency of tasks, based on the gradient algorithm of <a
+ * href="https://github.com/Netflix/concurrency-limits">concurrency-limits</a>. The limit shrinks
+ * when recent latency rises above its long-term average, a sign that the database is saturated
+ * and tasks are queueing, and otherwise grows by a small amount as long as the limit is being
+ * used.
+ */
+final class GradientConcurrencyLimit {
+
+  // Weight of the new limit when updating it.
+  private static final double SMOOTHING = 0.2;
+
+  // How much higher than the long-term average recent latency can be before reducing the limit.
+  private static final double LATENCY_TOLERANCE = 1.5;
+
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 600;
+
+  private final int minLimit;
+  private final int maxLimit;
+
+  // Guarded by this.
+  private double limit;
+  private double shortLatencyNanos;
+  private double longLatencyNanos;
+  private long numSamples;
+
+  GradientConcurrencyLimit(int minLimit, int maxLimit) {
+    checkArgument(minLimit > 0, "minLimit must be positive.");
+    checkArgument(maxLimit >= minLimit, "maxLimit must be at least minLimit.");
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    limit = minLimit;
+  }
+
+  /** Returns the current limit. */
+  synchronized int limit() {
+    return (int) limit;
+  }
+
+  /**
+   * Updates the limit with the latency of a completed task, which was one of {@code inFlight}
+   * tasks running or queued at the time.
+   */
+  synchronized void onSample(long latencyNanos, int inFlight) {
+    numSamples++;
+    shortLatencyNanos = average(shortLatencyNanos, latencyNanos, SHORT_WINDOW);
+    longLatencyNanos = average(longLatencyNanos, latencyNanos, LONG_WINDOW);
+
+    // Recover quickly from a period of high latency, which would otherwise keep the limit high
+    // until it has left the long-term average.
+    if (longLatencyNanos > shortLatencyNanos * 2) {
+      longLatencyNanos *= 0.95;
+    }
+
+    // Latency says nothing about whether more tasks could be run when the limit isn't being used.
+    if (inFlight < limit / 2) {
+      return;
+    }
+
+    double gradient =
+        Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * longLatencyNanos / shortLatencyNanos));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  private double average(double average, long sample, double window) {
+    // A simple average until there are enough samples for the window, so early samples are not
+    // overweighted.
+    double weight = numSamples < window ? 1.0 / numSamples : 2 / (window + 1);
+    return average + (Math.max(sample, 1) - average) * weight;
+  }
+}
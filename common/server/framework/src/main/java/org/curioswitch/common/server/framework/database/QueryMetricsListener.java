@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteType;
+import org.jooq.Query;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DefaultExecuteListener;
+
+/**
+ * A {@link org.jooq.ExecuteListener} which records the latency of queries and the number of rows
+ * they fetch, tagged by a fingerprint of the query, its SQL with literals and repeated lists of
+ * conditions or bind values collapsed. Also logs a sample of slow queries, with bind values
+ * inlined. The time spent waiting for a connection is recorded by the connection pool.
+ */
+final class QueryMetricsListener extends DefaultExecuteListener {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final Object START_NANOS = new Object();
+  private static final Object ROWS_FETCHED = new Object();
+
+  // Bounds the number of timers when there are many unexpected fingerprints, e.g. queries built
+  // with literals rendered as part of identifiers.
+  private static final int MAX_FINGERPRINTS = 500;
+  private static final String OTHER_FINGERPRINT = "other";
+
+  private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+  private static final Pattern BIND_LIST = Pattern.compile("\\(\\?(?:, \\?)+\\)");
+  private static final Pattern REPEATED_GROUP =
+      Pattern.compile("(\\([^()]*\\))(?: (?:or|and) \\1)+");
+
+  // Slow queries are logged in the background so writing the log doesn't add to the latency of
+  // requests. Slow queries are dropped when too many are waiting to be logged.
+  private static final ExecutorService slowQueryLogger =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          0,
+          TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(1000),
+          new ThreadFactoryBuilder().setNameFormat("slow-query-logger-%d").setDaemon(true).build(),
+          new ThreadPoolExecutor.DiscardPolicy());
+
+  private final MeterRegistry registry;
+  private final boolean recordMetrics;
+  private final long slowQueryThresholdNanos;
+  private final double slowQueryLogSampleRate;
+
+  private final Cache<String, String> fingerprints =
+      Caffeine.newBuilder().maximumSize(1000).build();
+  private final Set<String> knownFingerprints = ConcurrentHashMap.newKeySet();
+
+  QueryMetricsListener(
+      MeterRegistry registry,
+      boolean recordMetrics,
+      Duration slowQueryThreshold,
+      double slowQueryLogSampleRate) {
+    this.registry = registry;
+    this.recordMetrics = recordMetrics;
+    slowQueryThresholdNanos = slowQueryThreshold.toNanos();
+    this.slowQueryLogSampleRate = slowQueryLogSampleRate;
+  }
+
+  @Override
+  public void start(ExecuteContext ctx) {
+    ctx.data(START_NANOS, System.nanoTime());
+  }
+
+  @Override
+  public void recordEnd(ExecuteContext ctx) {
+    if (!recordMetrics) {
+      return;
+    }
+    int[] rowsFetched = (int[]) ctx.data(ROWS_FETCHED);
+    if (rowsFetched == null) {
+      rowsFetched = new int[1];
+      ctx.data(ROWS_FETCHED, rowsFetched);
+    }
+    rowsFetched[0]++;
+  }
+
+  @Override
+  public void end(ExecuteContext ctx) {
+    Long startNanos = (Long) ctx.data(START_NANOS);
+    if (startNanos == null) {
+      return;
+    }
+    long durationNanos = System.nanoTime() - startNanos;
+    String sql = sql(ctx);
+
+    if (recordMetrics) {
+      List<Tag> tags =
+          ImmutableList.of(
+              Tag.of("query", fingerprint(sql)),
+              Tag.of("type", ctx.type().name().toLowerCase(Locale.ROOT)),
+              Tag.of("result", ctx.exception() == null ? "success" : "failure"));
+      MoreMeters.newTimer(registry, "database.queryDuration", tags)
+          .record(durationNanos, TimeUnit.NANOSECONDS);
+      if (ctx.type() == ExecuteType.READ) {
+        int[] rowsFetched = (int[]) ctx.data(ROWS_FETCHED);
+        MoreMeters.newDistributionSummary(registry, "database.rowsFetched", tags)
+            .record(rowsFetched != null ? rowsFetched[0] : 0);
+      }
+    }
+
+    if (slowQueryThresholdNanos > 0
+        && durationNanos >= slowQueryThresholdNanos
+        && ThreadLocalRandom.current().nextDouble() < slowQueryLogSampleRate) {
+      // Rendered here, the query may not be safe to use from another thread.
+      Query query = ctx.query();
+      logSlowQuery(query != null ? query.getSQL(ParamType.INLINED) : sql, durationNanos);
+    }
+  }
+
+  private String fingerprint(@Nullable String sql) {
+    if (sql == null) {
+      return OTHER_FINGERPRINT;
+    }
+    return fingerprints.get(
+        sql,
+        unused -> {
+          String fingerprint = normalize(sql);
+          if (knownFingerprints.contains(fingerprint)
+              || (knownFingerprints.size() < MAX_FINGERPRINTS
+                  && knownFingerprints.add(fingerprint))) {
+            return fingerprint;
+          }
+          return OTHER_FINGERPRINT;
+        });
+  }
+
+  @VisibleForTesting
+  static String normalize(String sql) {
+    String normalized = LITERAL.matcher(sql).replaceAll("?");
+    normalized = BIND_LIST.matcher(normalized).replaceAll("(?+)");
+    return REPEATED_GROUP.matcher(normalized).replaceAll("$1 ...");
+  }
+
+  @Nullable
+  private static String sql(ExecuteContext ctx) {
+    if (ctx.sql() != null) {
+      return ctx.sql();
+    }
+    String[] batchSql = ctx.batchSQL();
+    return batchSql.length > 0 ? batchSql[0] : null;
+  }
+
+  private static void logSlowQuery(@Nullable String sql, long durationNanos) {
+    slowQueryLogger.execute(
+        () ->
+            logger.warn(
+                "Slow query took {}ms: {}", TimeUnit.NANOSECONDS.toMillis(durationNanos), sql));
+  }
+}
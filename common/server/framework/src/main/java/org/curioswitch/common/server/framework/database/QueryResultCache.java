@@ -0,0 +1,304 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.jooq.Configuration;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.Query;
+import org.jooq.QueryPart;
+import org.jooq.Record;
+import org.jooq.RenderContext;
+import org.jooq.Result;
+import org.jooq.ResultQuery;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.TransactionContext;
+import org.jooq.TransactionListener;
+import org.jooq.VisitContext;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultTransactionListener;
+import org.jooq.impl.DefaultVisitListener;
+import org.jooq.impl.DefaultVisitListenerProvider;
+import org.jooq.impl.TableImpl;
+
+/**
+ * A local cache of the results of read queries, for queries which are repeated often with the same
+ * bind values. Results are keyed by the SQL of the query with bind values inlined, and are
+ * invalidated when a query writing to one of the tables they read is executed on a {@link
+ * org.jooq.DSLContext} provided by {@link DatabaseModule}, and again when the transaction
+ * containing the write commits, since concurrent reads may cache the previous rows until then.
+ * Writes made by other servers are not seen, so the cache should be configured with a short
+ * expiration.
+ *
+ * <p>Queries should be executed on the primary {@link org.jooq.DSLContext}, not one annotated with
+ * {@link ForReadReplica}. A replica which lags behind a write can return the rows from before it
+ * after the write has invalidated them, and they would then stay cached until they expire.
+ *
+ * <p>Only tables referenced as generated tables, or with {@link DSL#table(org.jooq.Name)}, are
+ * tracked - results of queries which reference no such table are not cached.
+ */
+public final class QueryResultCache {
+
+  // Key for the tables referenced by a query in the data of the RenderContext rendering it.
+  private static final Object REFERENCED_TABLES = new Object();
+
+  private static final Configuration RENDER_CONFIGURATION =
+      new DefaultConfiguration()
+          .set(SQLDialect.MYSQL)
+          .set(new Settings().withRenderSchema(false))
+          .set(new DefaultVisitListenerProvider(new ReferencedTablesCollector()));
+
+  @Nullable private final Cache<String, CachedResult> cache;
+
+  // Incremented on every write, so a result read concurrently with a write is not cached.
+  private final AtomicLong writeVersion = new AtomicLong();
+
+  // Writes in the transaction running on the current thread, to invalidate again on commit.
+  private final ThreadLocal<TransactionWrites> transactionWrites =
+      ThreadLocal.withInitial(TransactionWrites::new);
+
+  QueryResultCache(@Nullable CaffeineSpec spec, @Nullable MeterRegistry registry) {
+    if (spec != null && registry != null) {
+      cache = Caffeine.from(spec).recordStats().build();
+      CaffeineCacheMetrics.monitor(registry, cache, "databaseQueryResults");
+    } else {
+      cache = null;
+    }
+  }
+
+  /** Returns a {@link QueryResultCache} which does not cache anything, e.g. for use in tests. */
+  public static QueryResultCache disabled() {
+    return new QueryResultCache(null, null);
+  }
+
+  /**
+   * Returns the result of {@code query}, executing it only if its result isn't cached. The returned
+   * {@link Result} may be shared with other callers and must not be modified.
+   */
+  public <R extends Record> Result<R> fetch(ResultQuery<R> query) {
+    if (cache == null) {
+      return query.fetch();
+    }
+    RenderContext render = render(query);
+    String sql = render.render();
+    CachedResult cached = cache.getIfPresent(sql);
+    if (cached != null) {
+      @SuppressWarnings("unchecked") // Keyed by SQL, so the query is the same.
+      Result<R> result = (Result<R>) cached.result;
+      return result;
+    }
+    long version = writeVersion.get();
+    Result<R> result = query.fetch();
+    Set<String> tables = referencedTables(render);
+    if (!tables.isEmpty()) {
+      cache.put(sql, new CachedResult(result, tables));
+      if (writeVersion.get() != version) {
+        // A write happened while fetching, it may or may not be reflected in the result.
+        cache.invalidate(sql);
+      }
+    }
+    return result;
+  }
+
+  boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Returns an {@link ExecuteListener} which invalidates cached results when a query writing to a
+   * table they read is executed.
+   */
+  ExecuteListener invalidationListener() {
+    return new InvalidationListener();
+  }
+
+  /**
+   * Returns a {@link TransactionListener} which invalidates cached results again when a transaction
+   * containing writes to a table they read commits. Must be registered together with {@link
+   * #invalidationListener()}.
+   */
+  TransactionListener transactionListener() {
+    return new TransactionInvalidationListener();
+  }
+
+  private void onWrite(@Nullable Query query) {
+    invalidate(query);
+    TransactionWrites writes = transactionWrites.get();
+    if (writes.depth > 0) {
+      writes.queries.add(query);
+    } else {
+      transactionWrites.remove();
+    }
+  }
+
+  private void onWriteAll() {
+    invalidateAll();
+    TransactionWrites writes = transactionWrites.get();
+    if (writes.depth > 0) {
+      writes.invalidateAll = true;
+    } else {
+      transactionWrites.remove();
+    }
+  }
+
+  private void invalidate(@Nullable Query query) {
+    Set<String> tables = query != null ? referencedTables(render(query)) : Collections.emptySet();
+    if (tables.isEmpty()) {
+      // We don't know what was written, e.g., for plain SQL.
+      invalidateAll();
+      return;
+    }
+    writeVersion.incrementAndGet();
+    if (cache != null) {
+      cache.asMap().values().removeIf(cached -> !Collections.disjoint(cached.tables, tables));
+    }
+  }
+
+  private void invalidateAll() {
+    writeVersion.incrementAndGet();
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  private static RenderContext render(QueryPart query) {
+    RenderContext render = DSL.using(RENDER_CONFIGURATION).renderContext();
+    render.paramType(ParamType.INLINED).visit(query);
+    return render;
+  }
+
+  @SuppressWarnings("unchecked") // Only set by ReferencedTablesCollector.
+  private static Set<String> referencedTables(RenderContext render) {
+    Set<String> tables = (Set<String>) render.data(REFERENCED_TABLES);
+    return tables != null ? tables : Collections.emptySet();
+  }
+
+  private class InvalidationListener extends DefaultExecuteListener {
+
+    @Override
+    public void executeEnd(ExecuteContext ctx) {
+      switch (ctx.type()) {
+        case WRITE:
+          onWrite(ctx.query());
+          break;
+        case BATCH:
+          Query[] queries = ctx.batchQueries();
+          if (queries.length == 0) {
+            onWriteAll();
+          }
+          for (Query query : queries) {
+            onWrite(query);
+          }
+          break;
+        case DDL:
+          onWriteAll();
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private class TransactionInvalidationListener extends DefaultTransactionListener {
+
+    @Override
+    public void beginStart(TransactionContext ctx) {
+      transactionWrites.get().depth++;
+    }
+
+    @Override
+    public void commitEnd(TransactionContext ctx) {
+      TransactionWrites writes = transactionWrites.get();
+      if (--writes.depth > 0) {
+        // Nested transaction, the writes are only visible once the outermost one commits.
+        return;
+      }
+      transactionWrites.remove();
+      if (writes.invalidateAll) {
+        invalidateAll();
+        return;
+      }
+      for (Query query : writes.queries) {
+        invalidate(query);
+      }
+    }
+
+    @Override
+    public void rollbackEnd(TransactionContext ctx) {
+      TransactionWrites writes = transactionWrites.get();
+      // Writes of a rolled back nested transaction are still invalidated, which is harmless.
+      if (--writes.depth <= 0) {
+        transactionWrites.remove();
+      }
+    }
+  }
+
+  private static class TransactionWrites {
+    private int depth;
+    private boolean invalidateAll;
+    private final List<Query> queries = new ArrayList<>();
+  }
+
+  private static class ReferencedTablesCollector extends DefaultVisitListener {
+
+    @Override
+    public void visitStart(VisitContext ctx) {
+      QueryPart part = ctx.queryPart();
+      if (part instanceof TableImpl) {
+        @SuppressWarnings("unchecked") // Only set here.
+        Set<String> tables =
+            (Set<String>) ctx.data().computeIfAbsent(REFERENCED_TABLES, unused -> new HashSet<>());
+        tables.add(((Table<?>) part).getName());
+      }
+    }
+  }
+
+  private static class CachedResult {
+    private final Result<?> result;
+    private final Set<String> tables;
+
+    private CachedResult(Result<?> result, Set<String> tables) {
+      this.result = result;
+      this.tables = tables;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A {@link DataSource} which returns connections to read replicas of the database, chosen at random
+ * among the replicas whose replication lag is within a threshold. When no replica is available,
+ * connections to the primary database are returned instead. Replication lag is checked
+ * periodically with {@code SHOW SLAVE STATUS}, which requires the {@code REPLICATION CLIENT}
+ * privilege.
+ */
+final class ReadReplicaDataSource implements DataSource, Closeable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final DataSource primary;
+  private final List<Replica> replicas;
+  private final long maxLagSeconds;
+  private final ScheduledExecutorService lagChecker;
+
+  ReadReplicaDataSource(
+      DataSource primary,
+      List<HikariDataSource> replicas,
+      Duration maxLag,
+      Duration lagCheckInterval,
+      MeterRegistry registry) {
+    this.primary = primary;
+    this.replicas = replicas.stream().map(Replica::new).collect(toImmutableList());
+    maxLagSeconds = maxLag.getSeconds();
+    lagChecker =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("db-replica-lag-%d").setDaemon(true).build());
+    for (Replica replica : this.replicas) {
+      registry.gauge(
+          "database.replicationLag",
+          ImmutableList.of(Tag.of("replica", replica.dataSource.getPoolName())),
+          replica,
+          r -> r.lagSeconds);
+      lagChecker.scheduleWithFixedDelay(
+          () -> checkLag(replica), 0, lagCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  List<HikariDataSource> replicaDataSources() {
+    return replicas.stream().map(replica -> replica.dataSource).collect(toImmutableList());
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    if (replicas.isEmpty()) {
+      return primary.getConnection();
+    }
+    int start = ThreadLocalRandom.current().nextInt(replicas.size());
+    for (int i = 0; i < replicas.size(); i++) {
+      Replica replica = replicas.get((start + i) % replicas.size());
+      if (replica.available) {
+        return replica.dataSource.getConnection();
+      }
+    }
+    return primary.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("Not a wrapper for " + iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) {
+    return iface.isInstance(this);
+  }
+
+  @Override
+  public void close() {
+    lagChecker.shutdownNow();
+    replicas.forEach(replica -> replica.dataSource.close());
+  }
+
+  private void checkLag(Replica replica) {
+    try (Connection connection = replica.dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet status = statement.executeQuery("SHOW SLAVE STATUS")) {
+      if (!status.next()) {
+        // Not a replica, e.g. a single server used in development or a promoted replica, so it is
+        // up to date.
+        replica.lagSeconds = 0;
+        replica.available = true;
+        return;
+      }
+      long lagSeconds = status.getLong("Seconds_Behind_Master");
+      if (status.wasNull()) {
+        // Replication is not running.
+        replica.lagSeconds = Double.NaN;
+        replica.available = false;
+        return;
+      }
+      replica.lagSeconds = lagSeconds;
+      replica.available = lagSeconds <= maxLagSeconds;
+    } catch (SQLException | RuntimeException e) {
+      // Exceptions must not escape since they would cancel future checks.
+      logger.warn(
+          "Could not check replication lag of {}, not using it.",
+          replica.dataSource.getPoolName(),
+          e);
+      replica.lagSeconds = Double.NaN;
+      replica.available = false;
+    }
+  }
+
+  private static class Replica {
+    private final HikariDataSource dataSource;
+
+    // Unavailable until the first lag check.
+    private volatile boolean available;
+    private volatile double lagSeconds = Double.NaN;
+
+    private Replica(HikariDataSource dataSource) {
+      this.dataSource = dataSource;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static org.curioswitch.common.server.framework.redis.RedisConstants.DEFAULT_METER_ID_PREFIX;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Message;
+import com.google.protobuf.TextFormat;
+import com.linecorp.armeria.common.metric.MoreMeters;
+import com.spotify.futures.ListenableFuturesExtra;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Metrics for a {@link ProtobufRedisLoadingCache}, tagged with the name of the cache. Local cache
+ * metrics are exported by {@link CaffeineCacheMetrics} as {@code cache.*}.
+ */
+final class CacheMetrics {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final String cacheName;
+  private final MeterRegistry registry;
+
+  private final Counter remoteHits;
+  private final Counter remoteMisses;
+  private final Timer loadSuccessDuration;
+  private final Timer loadFailureDuration;
+  private final DistributionSummary writtenPayloadSize;
+  private final DistributionSummary readPayloadSize;
+  private final MultiGauge hotKeys;
+
+  // An exponentially weighted moving average of successful load durations.
+  private final AtomicLong averageLoadNanos = new AtomicLong();
+
+  CacheMetrics(String cacheName, MeterRegistry registry) {
+    this.cacheName = cacheName;
+    this.registry = registry;
+
+    String remoteGets = DEFAULT_METER_ID_PREFIX.name("remoteGets");
+    remoteHits =
+        registry.counter(
+            remoteGets, DEFAULT_METER_ID_PREFIX.tags("result", "hit", "cache", cacheName));
+    remoteMisses =
+        registry.counter(
+            remoteGets, DEFAULT_METER_ID_PREFIX.tags("result", "miss", "cache", cacheName));
+
+    String loadDuration = DEFAULT_METER_ID_PREFIX.name("loadDuration");
+    loadSuccessDuration =
+        MoreMeters.newTimer(
+            registry,
+            loadDuration,
+            DEFAULT_METER_ID_PREFIX.tags("result", "success", "cache", cacheName));
+    loadFailureDuration =
+        MoreMeters.newTimer(
+            registry,
+            loadDuration,
+            DEFAULT_METER_ID_PREFIX.tags("result", "failure", "cache", cacheName));
+
+    String payloadSize = DEFAULT_METER_ID_PREFIX.name("payloadSize");
+    writtenPayloadSize =
+        MoreMeters.newDistributionSummary(
+            registry,
+            payloadSize,
+            DEFAULT_METER_ID_PREFIX.tags("direction", "write", "cache", cacheName));
+    readPayloadSize =
+        MoreMeters.newDistributionSummary(
+            registry,
+            payloadSize,
+            DEFAULT_METER_ID_PREFIX.tags("direction", "read", "cache", cacheName));
+
+    hotKeys =
+        MultiGauge.builder(DEFAULT_METER_ID_PREFIX.name("hotKeys"))
+            .tags(DEFAULT_METER_ID_PREFIX.tags("cache", cacheName))
+            .register(registry);
+  }
+
+  /**
+   * Exports the estimated access frequencies of the current hot keys, replacing any previously
+   * exported keys. Keys are tagged with their rank, hottest first, rather than their contents to
+   * keep the number of time series bounded, and are logged at debug level instead.
+   */
+  <K extends Message> void recordHotKeys(Map<K, Integer> frequencies) {
+    List<Map.Entry<K, Integer>> ranked =
+        frequencies.entrySet().stream()
+            .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
+            .collect(toImmutableList());
+    ImmutableList.Builder<MultiGauge.Row<?>> rows = ImmutableList.builder();
+    for (int rank = 0; rank < ranked.size(); rank++) {
+      Map.Entry<K, Integer> entry = ranked.get(rank);
+      rows.add(MultiGauge.Row.of(Tags.of("rank", String.valueOf(rank)), entry.getValue()));
+      if (logger.isDebugEnabled()) {
+        logger.debug(
+            "Hot key in cache {} at rank {}: {} ({})",
+            cacheName,
+            rank,
+            TextFormat.shortDebugString(entry.getKey()),
+            entry.getValue());
+      }
+    }
+    hotKeys.register(rows.build(), true);
+  }
+
+  /** Exports the stats of the local cache, which must have been built with stats recording. */
+  void monitorLocalCache(Cache<?, ?> localCache) {
+    CaffeineCacheMetrics.monitor(registry, localCache, cacheName);
+  }
+
+  void recordRemoteHits(int count) {
+    remoteHits.increment(count);
+  }
+
+  void recordRemoteMisses(int count) {
+    remoteMisses.increment(count);
+  }
+
+  /** Runs {@code load}, recording how long it takes for the returned future to complete. */
+  <T> CompletableFuture<T> recordLoad(Supplier<ListenableFuture<T>> load) {
+    long startNanos = System.nanoTime();
+    return ListenableFuturesExtra.toCompletableFuture(load.get())
+        .whenComplete(
+            (unused, t) -> {
+              long durationNanos = System.nanoTime() - startNanos;
+              if (t != null) {
+                loadFailureDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+                return;
+              }
+              loadSuccessDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+              averageLoadNanos.accumulateAndGet(
+                  durationNanos,
+                  (average, sample) -> average == 0 ? sample : average + (sample - average) / 8);
+            });
+  }
+
+  /** Returns the moving average of the duration of successful loads, {@code 0} before any. */
+  long averageLoadNanos() {
+    return averageLoadNanos.get();
+  }
+
+  void recordWrittenPayload(int size) {
+    writtenPayloadSize.record(size);
+  }
+
+  void recordReadPayload(int size) {
+    readPayloadSize.record(size);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Detects hot keys using a count-min sketch of access frequencies, aged by halving all counts
+ * periodically as in TinyLFU. Keys whose estimated frequency reaches the threshold are tracked as
+ * hot, up to a maximum number of keys, with colder keys replaced by hotter ones.
+ *
+ * <p>Counters are updated without synchronization, so concurrent increments may be lost. This only
+ * makes estimates slightly low, which is fine for detecting keys that are much hotter than others.
+ * Keys are only added to or removed from the hot keys under a lock, so there are never more than
+ * the maximum.
+ */
+final class HotKeyDetector<K> {
+
+  private static final int DEPTH = 4;
+  private static final int WIDTH = 4096;
+  private static final int MASK = WIDTH - 1;
+
+  // The number of accesses after which counts are halved.
+  private static final int SAMPLE_SIZE = 10 * WIDTH;
+
+  private final int threshold;
+  private final int maxHotKeys;
+  private final Consumer<Map<K, Integer>> hotKeysListener;
+
+  private final int[] counts = new int[DEPTH * WIDTH];
+  private final AtomicInteger accesses = new AtomicInteger();
+  private final Map<K, Integer> hotKeys = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new {@link HotKeyDetector}. {@code hotKeysListener} is called with the hot keys and
+   * their estimated frequencies at the end of each sampling period.
+   */
+  HotKeyDetector(int threshold, int maxHotKeys, Consumer<Map<K, Integer>> hotKeysListener) {
+    this.threshold = threshold;
+    this.maxHotKeys = maxHotKeys;
+    this.hotKeysListener = hotKeysListener;
+  }
+
+  /** Records an access of {@code key}, returning whether it is hot. */
+  boolean recordAccess(K key) {
+    int frequency = increment(key);
+    // Only updates the frequency of a key that is still hot, a key evicted concurrently is not
+    // added back without the lock.
+    boolean hot =
+        hotKeys.computeIfPresent(key, (unused, previous) -> frequency) != null
+            || (frequency >= threshold && maybeAddHotKey(key, frequency));
+    if (accesses.incrementAndGet() == SAMPLE_SIZE) {
+      age();
+    }
+    return hot;
+  }
+
+  private int increment(K key) {
+    long hash = spread(key.hashCode());
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = i * WIDTH + ((int) (hash >>> (i * 16)) & MASK);
+      int count = counts[index];
+      if (count != Integer.MAX_VALUE) {
+        counts[index] = ++count;
+      }
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  private synchronized boolean maybeAddHotKey(K key, int frequency) {
+    if (hotKeys.containsKey(key) || hotKeys.size() < maxHotKeys) {
+      hotKeys.put(key, frequency);
+      return true;
+    }
+    K coldest = null;
+    int coldestFrequency = Integer.MAX_VALUE;
+    for (Map.Entry<K, Integer> entry : hotKeys.entrySet()) {
+      if (entry.getValue() < coldestFrequency) {
+        coldest = entry.getKey();
+        coldestFrequency = entry.getValue();
+      }
+    }
+    if (coldest == null || coldestFrequency >= frequency) {
+      return false;
+    }
+    hotKeys.remove(coldest);
+    hotKeys.put(key, frequency);
+    return true;
+  }
+
+  private synchronized void age() {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] >>>= 1;
+    }
+    hotKeysListener.accept(ImmutableMap.copyOf(hotKeys));
+    hotKeys.replaceAll((key, frequency) -> frequency >>> 1);
+    hotKeys.values().removeIf(frequency -> frequency < threshold);
+    accesses.set(0);
+  }
+
+  private static long spread(int hashCode) {
+    // Each row uses a different 16 bits of the mixed hash.
+    return hashCode * 0x9E3779B97F4A7C15L;
+  }
+}
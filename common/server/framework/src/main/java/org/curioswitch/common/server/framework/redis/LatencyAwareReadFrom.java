@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.models.role.RedisNodeDescription;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link ReadFrom} which prefers the replicas with the lowest command latency measured by {@link
+ * MicrometerCommandLatencyCollector}, falling back to the upstream (master) node. Unlike {@link
+ * ReadFrom#NEAREST}, which uses the latency of pings during topology refresh, this reflects the
+ * latency of the commands actually being sent. Nodes without any measured latency are tried first
+ * so they get measured.
+ */
+final class LatencyAwareReadFrom extends ReadFrom {
+
+  private final MicrometerCommandLatencyCollector latencies;
+
+  LatencyAwareReadFrom(MicrometerCommandLatencyCollector latencies) {
+    this.latencies = latencies;
+  }
+
+  @Override
+  public List<RedisNodeDescription> select(Nodes nodes) {
+    return nodes.getNodes().stream()
+        .sorted(
+            Comparator.comparing(
+                    (RedisNodeDescription node) -> node.getRole().isUpstream())
+                .thenComparingLong(this::latencyNanos))
+        .collect(toImmutableList());
+  }
+
+  @Override
+  protected boolean isOrderSensitive() {
+    return true;
+  }
+
+  private long latencyNanos(RedisNodeDescription node) {
+    RedisURI uri = node.getUri();
+    return latencies.averageLatencyNanos(uri.getHost(), uri.getPort());
+  }
+}
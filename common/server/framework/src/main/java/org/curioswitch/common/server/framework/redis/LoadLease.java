@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.curioswitch.common.server.framework.redis.RedisConstants.DEFAULT_METER_ID_PREFIX;
+
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lease on loading a key missing from the remote cache, stored in redis with {@code SET NX PX} so
+ * only one server runs the loader for a key at a time.
+ */
+final class LoadLease<K, V> {
+
+  private final RemoteCache<K, V> leases;
+  private final V token;
+  private final SetArgs setArgs;
+  private final long maxWaitNanos;
+  private final long pollIntervalMillis;
+
+  private final Timer waitDuration;
+  private final Counter fallbacks;
+
+  LoadLease(
+      RemoteCache<K, V> leases,
+      V token,
+      RedisCacheOptions options,
+      String cacheName,
+      MeterRegistry registry) {
+    this.leases = leases;
+    this.token = token;
+    Duration leaseDuration = checkNotNull(options.loadLeaseDuration(), "loadLeaseDuration");
+    setArgs = SetArgs.Builder.nx().px(leaseDuration.toMillis());
+    maxWaitNanos = leaseDuration.toNanos();
+    pollIntervalMillis = options.loadLeasePollInterval().toMillis();
+
+    waitDuration =
+        MoreMeters.newTimer(
+            registry,
+            DEFAULT_METER_ID_PREFIX.name("loadLeaseWaitDuration"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+    fallbacks =
+        registry.counter(
+            DEFAULT_METER_ID_PREFIX.name("loadLeaseFallbacks"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+  }
+
+  /** Tries to acquire the lease for {@code key}, completing with whether it was acquired. */
+  CompletionStage<Boolean> tryAcquire(K key) {
+    // SET NX returns nil if the key is already set.
+    return leases.set(key, token, setArgs).thenApply("OK"::equals);
+  }
+
+  /**
+   * Releases the lease for {@code key}. The lease is not checked for ownership, so if the loader
+   * ran past the lease duration another server's lease may be released, which only results in an
+   * extra load.
+   */
+  CompletionStage<Long> release(K key) {
+    return leases.del(key);
+  }
+
+  /** Returns an {@link Executor} which runs a poll for the leased value on {@code executor}. */
+  Executor pollExecutor(Executor executor) {
+    return CompletableFuture.delayedExecutor(pollIntervalMillis, TimeUnit.MILLISECONDS, executor);
+  }
+
+  /** Returns whether a server which started waiting at {@code startNanos} should stop waiting. */
+  boolean waitExpired(long startNanos) {
+    return System.nanoTime() - startNanos >= maxWaitNanos;
+  }
+
+  void recordWait(long startNanos) {
+    waitDuration.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void recordFallback() {
+    fallbacks.increment();
+  }
+}
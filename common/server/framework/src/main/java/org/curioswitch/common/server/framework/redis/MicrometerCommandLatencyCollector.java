@@ -32,15 +32,21 @@ import io.lettuce.core.metrics.CommandLatencyId;
 import io.lettuce.core.metrics.CommandMetrics;
 import io.lettuce.core.protocol.ProtocolKeyword;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 class MicrometerCommandLatencyCollector implements CommandLatencyCollector {
 
   private final MeterIdPrefix idPrefix;
   private final MeterRegistry registry;
 
+  // Exponentially weighted moving averages of command latency, keyed by host:port of the node.
+  private final Map<String, AtomicLong> averageLatencyNanos = new ConcurrentHashMap<>();
+
   MicrometerCommandLatencyCollector(MeterIdPrefix idPrefix, MeterRegistry registry) {
     this.idPrefix = idPrefix.append("totalDuration");
     this.registry = registry;
@@ -58,6 +64,20 @@ class MicrometerCommandLatencyCollector implements CommandLatencyCollector {
             idPrefix.name(),
             idPrefix.tags("remote", remote.toString(), "command", commandType.name()))
         .record(Duration.ofNanos(completionLatency));
+    averageLatencyNanos
+        .computeIfAbsent(addressKey(remote), unused -> new AtomicLong())
+        .accumulateAndGet(
+            completionLatency,
+            (average, sample) -> average == 0 ? sample : average + (sample - average) / 8);
+  }
+
+  /**
+   * Returns the moving average of the latency of commands sent to the node at {@code host} and
+   * {@code port}, or {@code 0} if no command has been sent to it yet.
+   */
+  long averageLatencyNanos(String host, int port) {
+    AtomicLong latency = averageLatencyNanos.get(host + ':' + port);
+    return latency != null ? latency.get() : 0;
   }
 
   @Override
@@ -73,4 +93,12 @@ class MicrometerCommandLatencyCollector implements CommandLatencyCollector {
   public boolean isEnabled() {
     return true;
   }
+
+  private static String addressKey(SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      InetSocketAddress inetAddress = (InetSocketAddress) address;
+      return inetAddress.getHostString() + ':' + inetAddress.getPort();
+    }
+    return address.toString();
+  }
 }
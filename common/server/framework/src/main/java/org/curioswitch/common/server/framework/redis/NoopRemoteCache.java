@@ -24,7 +24,11 @@
 
 package org.curioswitch.common.server.framework.redis;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.SetArgs;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -39,15 +43,35 @@ class NoopRemoteCache<K, V> implements RemoteCache<K, V> {
     return CompletableFuture.completedFuture(cache.get(key));
   }
 
+  @Override
+  public CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys) {
+    return CompletableFuture.completedFuture(
+        keys.stream()
+            .map(key -> KeyValue.fromNullable(key, cache.get(key)))
+            .collect(toImmutableList()));
+  }
+
   @Override
   public CompletionStage<String> set(K key, V value, SetArgs setArgs) {
     cache.put(key, value);
     return CompletableFuture.completedFuture("OK");
   }
 
+  @Override
+  public CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs) {
+    cache.putAll(values);
+    return CompletableFuture.completedFuture(null);
+  }
+
   @Override
   public CompletionStage<Long> del(K key) {
     cache.remove(key);
     return CompletableFuture.completedFuture(1L);
   }
+
+  @Override
+  public CompletionStage<Long> pttl(K key) {
+    // Values never expire.
+    return CompletableFuture.completedFuture(cache.containsKey(key) ? -1L : -2L);
+  }
 }
@@ -0,0 +1,306 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static org.curioswitch.common.server.framework.redis.RedisConstants.DEFAULT_METER_ID_PREFIX;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Message;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RemoteCache} which keeps serialized values in a size-bounded, off-heap tier in front of
+ * another {@link RemoteCache}. Values are stored encoded in direct buffers, so a large number of
+ * values can be cached locally without growing the heap, and are only decoded when read. The tier
+ * is bounded by the total size of the encoded values, evicting with Caffeine's policy, and
+ * entries expire after a fixed duration. Values copied from the delegate expire no later than they
+ * do in the delegate, so the copy is never served longer than the delegate would serve it.
+ *
+ * <p>Absent values are not stored since they have their own, shorter, expiration.
+ */
+class OffHeapRemoteCache<K extends Message, V extends Message> implements RemoteCache<K, V> {
+
+  private final RemoteCache<K, V> delegate;
+  private final ProtobufRedisCodec<K, V> codec;
+  private final V absentValue;
+
+  // The remaining TTL returned by PTTL for a key without an expiration.
+  private static final long NO_EXPIRATION = -1;
+
+  private final long expireAfterWriteNanos;
+  private final Cache<K, Entry> values;
+
+  private final Counter hits;
+  private final Counter misses;
+
+  OffHeapRemoteCache(
+      RemoteCache<K, V> delegate,
+      ProtobufRedisCodec<K, V> codec,
+      V absentValue,
+      long maxBytes,
+      Duration expireAfterWrite,
+      String cacheName,
+      MeterRegistry registry) {
+    this.delegate = delegate;
+    this.codec = codec;
+    this.absentValue = absentValue;
+    expireAfterWriteNanos = expireAfterWrite.toNanos();
+
+    values =
+        Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .<K, Entry>weigher((unused, entry) -> entry.buf.capacity())
+            .expireAfter(new EntryExpiry<K>())
+            .<K, Entry>removalListener(
+                (unused, entry, cause) -> {
+                  if (entry != null) {
+                    entry.buf.release();
+                  }
+                })
+            .build();
+
+    String gets = DEFAULT_METER_ID_PREFIX.name("offHeapGets");
+    hits =
+        registry.counter(gets, DEFAULT_METER_ID_PREFIX.tags("result", "hit", "cache", cacheName));
+    misses =
+        registry.counter(gets, DEFAULT_METER_ID_PREFIX.tags("result", "miss", "cache", cacheName));
+    registry.gauge(
+        DEFAULT_METER_ID_PREFIX.name("offHeapBytes"),
+        DEFAULT_METER_ID_PREFIX.tags("cache", cacheName),
+        values,
+        cache -> cache.policy().eviction().get().weightedSize().orElse(0));
+    registry.gauge(
+        DEFAULT_METER_ID_PREFIX.name("offHeapEntries"),
+        DEFAULT_METER_ID_PREFIX.tags("cache", cacheName),
+        values,
+        Cache::estimatedSize);
+  }
+
+  @Override
+  public CompletionStage<V> get(K key) {
+    V value = getLocal(key);
+    if (value != null) {
+      hits.increment();
+      return CompletableFuture.completedFuture(value);
+    }
+    misses.increment();
+    // Read the remaining TTL in the same pipeline, so the copy doesn't outlive the remote value.
+    CompletionStage<Long> pttl = pttlOrExpired(key);
+    return delegate
+        .get(key)
+        .thenCombine(
+            pttl,
+            (remoteValue, remainingMillis) -> {
+              if (remoteValue != null) {
+                putLocal(key, remoteValue, remainingMillis);
+              }
+              return remoteValue;
+            });
+  }
+
+  @Override
+  public CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys) {
+    Map<K, V> localValues = new HashMap<>();
+    List<K> missing = new ArrayList<>();
+    for (K key : keys) {
+      V value = getLocal(key);
+      if (value != null) {
+        localValues.put(key, value);
+      } else {
+        missing.add(key);
+      }
+    }
+    hits.increment(localValues.size());
+    misses.increment(missing.size());
+    if (missing.isEmpty()) {
+      return CompletableFuture.completedFuture(
+          keys.stream()
+              .map(key -> KeyValue.just(key, localValues.get(key)))
+              .collect(toImmutableList()));
+    }
+    Map<K, CompletableFuture<Long>> pttls = new LinkedHashMap<>();
+    for (K key : missing) {
+      pttls.put(key, pttlOrExpired(key).toCompletableFuture());
+    }
+    return delegate
+        .mget(missing)
+        .thenCombine(
+            CompletableFuture.allOf(pttls.values().toArray(new CompletableFuture<?>[0])),
+            (remoteValues, unused) -> {
+              Map<K, KeyValue<K, V>> merged = new HashMap<>();
+              for (KeyValue<K, V> remoteValue : remoteValues) {
+                if (remoteValue.hasValue()) {
+                  CompletableFuture<Long> pttl = pttls.get(remoteValue.getKey());
+                  putLocal(
+                      remoteValue.getKey(),
+                      remoteValue.getValue(),
+                      pttl != null ? pttl.join() : NO_EXPIRATION);
+                }
+                merged.put(remoteValue.getKey(), remoteValue);
+              }
+              ImmutableList.Builder<KeyValue<K, V>> ordered =
+                  ImmutableList.builderWithExpectedSize(keys.size());
+              for (K key : keys) {
+                V localValue = localValues.get(key);
+                ordered.add(
+                    localValue != null
+                        ? KeyValue.just(key, localValue)
+                        : merged.getOrDefault(key, KeyValue.empty(key)));
+              }
+              return ordered.build();
+            });
+  }
+
+  @Override
+  public CompletionStage<String> set(K key, V value, SetArgs setArgs) {
+    // Written values expire in the delegate after at least the tier's expiration.
+    putLocal(key, value, NO_EXPIRATION);
+    return delegate.set(key, value, setArgs);
+  }
+
+  @Override
+  public CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs) {
+    values.forEach((key, value) -> putLocal(key, value, NO_EXPIRATION));
+    return delegate.setAll(values, setArgs);
+  }
+
+  @Override
+  public CompletionStage<Long> del(K key) {
+    values.invalidate(key);
+    return delegate.del(key);
+  }
+
+  @Override
+  public CompletionStage<Long> pttl(K key) {
+    return delegate.pttl(key);
+  }
+
+  @Override
+  public void invalidateLocal(K key) {
+    values.invalidate(key);
+    delegate.invalidateLocal(key);
+  }
+
+  @Nullable
+  private V getLocal(K key) {
+    Entry entry = values.getIfPresent(key);
+    if (entry == null) {
+      return null;
+    }
+    ByteBuf buf = entry.buf;
+    try {
+      buf.retain();
+    } catch (IllegalReferenceCountException e) {
+      // Evicted and released concurrently.
+      return null;
+    }
+    try {
+      return codec.decodeValue(buf.nioBuffer());
+    } finally {
+      buf.release();
+    }
+  }
+
+  private CompletionStage<Long> pttlOrExpired(K key) {
+    // Not caching a value locally is always safe.
+    return delegate.pttl(key).exceptionally(unused -> 0L);
+  }
+
+  /**
+   * Stores {@code value} in the tier, expiring after at most {@code remainingMillis}, the remaining
+   * TTL of the value in the delegate.
+   */
+  private void putLocal(K key, V value, long remainingMillis) {
+    if (value == absentValue) {
+      values.invalidate(key);
+      return;
+    }
+    final long expireAfterNanos;
+    if (remainingMillis == NO_EXPIRATION) {
+      expireAfterNanos = expireAfterWriteNanos;
+    } else if (remainingMillis > 0) {
+      expireAfterNanos =
+          Math.min(expireAfterWriteNanos, TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+    } else {
+      // Expired or deleted since it was read.
+      return;
+    }
+    ByteBuf buf = Unpooled.directBuffer(codec.estimateSize(value));
+    try {
+      codec.encodeValue(value, buf);
+    } catch (RuntimeException e) {
+      buf.release();
+      throw e;
+    }
+    values.put(key, new Entry(buf, expireAfterNanos));
+  }
+
+  private static final class Entry {
+    private final ByteBuf buf;
+    private final long expireAfterNanos;
+
+    private Entry(ByteBuf buf, long expireAfterNanos) {
+      this.buf = buf;
+      this.expireAfterNanos = expireAfterNanos;
+    }
+  }
+
+  private static final class EntryExpiry<K> implements Expiry<K, Entry> {
+    @Override
+    public long expireAfterCreate(K key, Entry entry, long currentTime) {
+      return entry.expireAfterNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, Entry entry, long currentTime, long currentDuration) {
+      return entry.expireAfterNanos;
+    }
+
+    @Override
+    public long expireAfterRead(K key, Entry entry, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
@@ -21,7 +21,6 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-
 package org.curioswitch.common.server.framework.redis;
 
 import com.google.protobuf.CodedInputStream;
@@ -30,46 +29,131 @@ import com.google.protobuf.Message;
 import io.lettuce.core.codec.RedisCodec;
 import io.lettuce.core.codec.ToByteBufEncoder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 
+/**
+ * A {@link RedisCodec} for protobuf {@link Message} keys and values. Lettuce encodes through the
+ * {@link ToByteBufEncoder} methods, which serialize directly into the pooled buffer allocated for
+ * the command. When the key and value types differ, the size estimate is exact and lettuce writes
+ * into the outgoing buffer without an intermediate copy.
+ *
+ * <p>If a {@link ValueCompressor} is provided, large values are compressed. Compressed values are
+ * always decoded, whether or not compression is enabled, so compression can be enabled or disabled
+ * on a cache with existing values.
+ *
+ * <p>The value returned by {@link #absentValue(Message)} for the value type is encoded as a single
+ * sentinel byte, allowing absent results to be cached.
+ */
 class ProtobufRedisCodec<K extends Message, V extends Message>
     implements RedisCodec<K, V>, ToByteBufEncoder<K, V> {
 
+  private static final byte[] EMPTY_PREFIX = new byte[0];
+
+  // Tags with field number 0 (0x00 - 0x07) can never start a serialized message. 0x00 is used by
+  // ValueCompressor.
+  private static final byte ABSENT_HEADER = 1;
+
+  private static final Map<Class<?>, Message> ABSENT_VALUES = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the sentinel which represents an absent value of {@code prototype}'s type. The
+   * sentinel is equal to the default instance, so it must only be compared by identity.
+   */
+  static <V extends Message> V absentValue(V prototype) {
+    @SuppressWarnings("unchecked") // The sentinel is built from a V.
+    V absentValue =
+        (V)
+            ABSENT_VALUES.computeIfAbsent(
+                prototype.getClass(), unused -> newAbsentValue(prototype));
+    return absentValue;
+  }
+
+  private static Message newAbsentValue(Message prototype) {
+    // Building always creates a new instance, so it will never be the same instance as one returned
+    // by a loader.
+    return prototype.getDefaultInstanceForType().toBuilder().build();
+  }
+
   private final byte[] keyPrefix;
   private final K keyPrototype;
   private final V valuePrototype;
+  private final V absentValue;
+  @Nullable private final ValueCompressor compressor;
+  @Nullable private final CacheMetrics metrics;
+
+  // We can only tell keys and values apart in estimateSize when they are different types.
+  private final boolean keyAndValueDistinct;
+  private final boolean estimateExact;
 
   ProtobufRedisCodec(byte[] keyPrefix, K keyPrototype, V valuePrototype) {
+    this(keyPrefix, keyPrototype, valuePrototype, null, null);
+  }
+
+  ProtobufRedisCodec(
+      byte[] keyPrefix,
+      K keyPrototype,
+      V valuePrototype,
+      @Nullable ValueCompressor compressor,
+      @Nullable CacheMetrics metrics) {
     this.keyPrefix = keyPrefix;
     this.keyPrototype = keyPrototype;
     this.valuePrototype = valuePrototype;
+    absentValue = absentValue(valuePrototype);
+    this.compressor = compressor;
+    this.metrics = metrics;
+    keyAndValueDistinct = keyPrototype.getClass() != valuePrototype.getClass();
+    estimateExact = compressor == null && (keyPrefix.length == 0 || keyAndValueDistinct);
   }
 
   @Override
   public K decodeKey(ByteBuffer bytes) {
+    bytes.position(bytes.position() + keyPrefix.length);
     return decode(bytes, keyPrototype);
   }
 
   @Override
   public V decodeValue(ByteBuffer bytes) {
-    return decode(bytes, valuePrototype);
+    if (metrics != null) {
+      metrics.recordReadPayload(bytes.remaining());
+    }
+    if (bytes.remaining() == 1 && bytes.get(bytes.position()) == ABSENT_HEADER) {
+      return absentValue;
+    }
+    if (!ValueCompressor.isCompressed(bytes)) {
+      if (compressor == null) {
+        return decode(bytes, valuePrototype);
+      }
+      long startNanos = System.nanoTime();
+      V value = decode(bytes, valuePrototype);
+      compressor.recordDecode(System.nanoTime() - startNanos);
+      return value;
+    }
+    long startNanos = System.nanoTime();
+    V value = decodeDecompressed(ValueCompressor.decompress(bytes), valuePrototype);
+    if (compressor != null) {
+      compressor.recordDecode(System.nanoTime() - startNanos);
+    }
+    return value;
   }
 
   @Override
   public ByteBuffer encodeKey(K key) {
-    ByteBuf buf = Unpooled.buffer(estimateSize(key));
-    encodeKey(key, buf);
-    return buf.nioBuffer();
+    ByteBuffer buf = ByteBuffer.allocate(keyPrefix.length + key.getSerializedSize());
+    encodeTo(keyPrefix, key, buf);
+    buf.flip();
+    return buf;
   }
 
   @Override
   public void encodeKey(K key, ByteBuf target) {
-    target.writeBytes(keyPrefix);
-    encodeTo(key, target);
-    target.writerIndex(key.getSerializedSize() + keyPrefix.length);
+    encodeTo(keyPrefix, key, target);
   }
 
   @Override
@@ -81,35 +165,117 @@ class ProtobufRedisCodec<K extends Message, V extends Message>
 
   @Override
   public void encodeValue(V value, ByteBuf target) {
-    encodeTo(value, target);
-    target.writerIndex(value.getSerializedSize());
+    int writerIndex = target.writerIndex();
+    encodeValueTo(value, target);
+    if (metrics != null) {
+      metrics.recordWrittenPayload(target.writerIndex() - writerIndex);
+    }
+  }
+
+  private void encodeValueTo(V value, ByteBuf target) {
+    if (value == absentValue) {
+      target.writeByte(ABSENT_HEADER);
+      return;
+    }
+    if (compressor == null) {
+      encodeTo(EMPTY_PREFIX, value, target);
+      return;
+    }
+    long startNanos = System.nanoTime();
+    int size = value.getSerializedSize();
+    if (!compressor.shouldCompress(size)) {
+      encodeTo(EMPTY_PREFIX, value, target);
+    } else {
+      ByteBuf uncompressed = target.alloc().buffer(size);
+      try {
+        encodeTo(EMPTY_PREFIX, value, uncompressed);
+        if (!compressor.compress(uncompressed, target)) {
+          target.writeBytes(uncompressed);
+        }
+      } finally {
+        uncompressed.release();
+      }
+    }
+    compressor.recordEncode(System.nanoTime() - startNanos);
   }
 
   @Override
   public int estimateSize(Object keyOrValue) {
-    // Will overestimate for values which don't need the prefix, but can't help it.
-    return ((Message) keyOrValue).getSerializedSize() + keyPrefix.length;
+    if (keyOrValue == absentValue) {
+      return 1;
+    }
+    Message message = (Message) keyOrValue;
+    int size = message.getSerializedSize();
+    if (compressor != null && compressor.shouldCompress(size)) {
+      size = compressor.maxCompressedSize(size);
+    }
+    if (keyAndValueDistinct && message.getClass() != keyPrototype.getClass()) {
+      return size;
+    }
+    // Will overestimate for values which don't need the prefix if key and value are the same type.
+    return size + keyPrefix.length;
+  }
+
+  @Override
+  public boolean isEstimateExact() {
+    return estimateExact;
+  }
+
+  private static void encodeTo(byte[] prefix, Message message, ByteBuf target) {
+    int size = prefix.length + message.getSerializedSize();
+    target.ensureWritable(size);
+    int writerIndex = target.writerIndex();
+    try {
+      if (target.nioBufferCount() == 1) {
+        CodedOutputStream output =
+            CodedOutputStream.newInstance(target.nioBuffer(writerIndex, size));
+        writeTo(prefix, message, output);
+        target.writerIndex(writerIndex + size);
+      } else {
+        // Composite buffers can't be written through a single NIO view.
+        writeTo(prefix, message, CodedOutputStream.newInstance(new ByteBufOutputStream(target)));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not encode message.", e);
+    }
   }
 
-  private static void encodeTo(Message message, ByteBuf target) {
+  private static void encodeTo(byte[] prefix, Message message, ByteBuffer target) {
     try {
-      message.writeTo(
-          CodedOutputStream.newInstance(
-              target.nioBuffer(target.writerIndex(), target.writableBytes())));
+      writeTo(prefix, message, CodedOutputStream.newInstance(target));
     } catch (IOException e) {
       throw new UncheckedIOException("Could not encode message.", e);
     }
   }
 
+  private static void writeTo(byte[] prefix, Message message, CodedOutputStream output)
+      throws IOException {
+    output.writeRawBytes(prefix);
+    message.writeTo(output);
+    output.flush();
+  }
+
   private static <T extends Message> T decode(ByteBuffer bytes, T prototype) {
-    Message.Builder builder = prototype.newBuilderForType();
+    // Aliasing is not enabled since lettuce reuses the buffer after decoding.
+    try {
+      @SuppressWarnings("unchecked") // T.getParserForType() parses T
+      T parsed = (T) prototype.getParserForType().parseFrom(CodedInputStream.newInstance(bytes));
+      return parsed;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not decode message.", e);
+    }
+  }
+
+  private static <T extends Message> T decodeDecompressed(byte[] bytes, T prototype) {
+    CodedInputStream input = CodedInputStream.newInstance(bytes);
+    // The decompressed bytes are owned by the decoded message so can be aliased.
+    input.enableAliasing(true);
     try {
-      builder.mergeFrom(CodedInputStream.newInstance(bytes));
+      @SuppressWarnings("unchecked") // T.getParserForType() parses T
+      T parsed = (T) prototype.getParserForType().parseFrom(input);
+      return parsed;
     } catch (IOException e) {
       throw new UncheckedIOException("Could not decode message.", e);
     }
-    @SuppressWarnings("unchecked") // T.newBuilderForType().build() returns T
-    T built = (T) builder.build();
-    return built;
   }
 }
@@ -21,19 +21,26 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-
 package org.curioswitch.common.server.framework.redis;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.Message;
 import com.spotify.futures.CompletableFuturesExtra;
-import com.spotify.futures.ListenableFuturesExtra;
 import dagger.Lazy;
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.ReadFrom;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisException;
@@ -41,12 +48,23 @@ import io.lettuce.core.SetArgs;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.cluster.RedisClusterClient;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.metrics.CommandLatencyRecorder;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -133,81 +151,300 @@ public class ProtobufRedisLoadingCache<K extends Message, V extends Message> {
         Duration redisTtl,
         boolean redisMasterOnly,
         @Nullable CaffeineSpec localCacheSpec) {
+      return create(
+          name,
+          keyPrototype,
+          valuePrototype,
+          new RedisCacheOptions.Builder()
+              .redisTtl(redisTtl)
+              .redisMasterOnly(redisMasterOnly)
+              .localCacheSpec(localCacheSpec)
+              .build());
+    }
+
+    /**
+     * Constructs a new {@link ProtobufRedisLoadingCache} that can write protobuf {@link Message}
+     * keys and values to remoteCache, configured by {@link RedisCacheOptions}.
+     *
+     * @param name name of this cache, will be prefixed onto all keys.
+     * @param keyPrototype a prototype for the key {@link Message}, usually gotten from {@code
+     *     Key.getDefaultInstance()}.
+     * @param valuePrototype a prototype for the value {@link Message}, usually gotten from {@code
+     *     Value.getDefaultInstance()}.
+     * @param options the {@link RedisCacheOptions} for the cache.
+     */
+    public <K extends Message, V extends Message> ProtobufRedisLoadingCache<K, V> create(
+        String name, K keyPrototype, V valuePrototype, RedisCacheOptions options) {
+      CacheMetrics metrics = new CacheMetrics(name, meterRegistry);
+      if (config.isNoop()) {
+        // The noop cache is only used within a single server so there is nothing to coordinate
+        // with other servers.
+        return new ProtobufRedisLoadingCache<>(
+            keyPrototype, valuePrototype, options, metrics, new NoopRemoteCache<>(), null, null);
+      }
+      ProtobufRedisCodec<K, V> codec =
+          createCodec(name, keyPrototype, valuePrototype, options, metrics);
+      ReadFrom readFrom = options.redisMasterOnly() ? ReadFrom.MASTER : replicaReadFrom();
+      RemoteCache<K, V> remoteCache;
+      if (options.redisConnections() == 1) {
+        remoteCache = createRedisRemoteCache(name, codec, readFrom, options.traceRequests(), false);
+      } else {
+        ImmutableList.Builder<RemoteCache<K, V>> shards = ImmutableList.builder();
+        for (int i = 0; i < options.redisConnections(); i++) {
+          shards.add(createRedisRemoteCache(name, codec, readFrom, options.traceRequests(), false));
+        }
+        remoteCache = new ShardedRemoteCache<>(shards.build());
+      }
+      Duration writeCoalescingWindow = options.writeCoalescingWindow();
+      if (writeCoalescingWindow != null) {
+        remoteCache =
+            new WriteCoalescingRemoteCache<>(
+                remoteCache,
+                createRedisRemoteCache(name, codec, ReadFrom.MASTER, options.traceRequests(), true),
+                writeCoalescingWindow,
+                options.writeCoalescingMaxBatchSize(),
+                name,
+                meterRegistry);
+      }
+      if (options.offHeapMaxBytes() > 0) {
+        Duration offHeapExpireAfterWrite = options.offHeapExpireAfterWrite();
+        if (offHeapExpireAfterWrite == null) {
+          // Other servers' refreshes are only seen after the local copy expires.
+          offHeapExpireAfterWrite =
+              options.refreshAfterWrite() != null
+                  ? options.refreshAfterWrite()
+                  : options.redisTtl();
+        }
+        remoteCache =
+            new OffHeapRemoteCache<>(
+                remoteCache,
+                // Payload metrics are only for values sent to redis.
+                createCodec(name, keyPrototype, valuePrototype, options, null),
+                ProtobufRedisCodec.absentValue(valuePrototype),
+                options.offHeapMaxBytes(),
+                offHeapExpireAfterWrite,
+                name,
+                meterRegistry);
+      }
+      LoadLease<K, V> loadLease =
+          options.loadLeaseDuration() != null
+              ? new LoadLease<>(
+                  createRedisRemoteCache(
+                      name + ":lease",
+                      new ProtobufRedisCodec<>(
+                          (name + ":lease:").getBytes(StandardCharsets.UTF_8),
+                          keyPrototype,
+                          valuePrototype),
+                      ReadFrom.MASTER,
+                      options.traceRequests(),
+                      false),
+                  valuePrototype,
+                  options,
+                  name,
+                  meterRegistry)
+              : null;
+      InvalidationChannel<K> invalidationChannel =
+          options.invalidateLocalCaches() ? createInvalidationChannel(name, keyPrototype) : null;
       return new ProtobufRedisLoadingCache<>(
           keyPrototype,
           valuePrototype,
-          redisTtl,
-          localCacheSpec,
-          config.isNoop()
-              ? new NoopRemoteCache<>()
-              : config.isCluster()
-                  ? createRedisRemoteCache(
-                      name,
-                      redisClusterClient.get(),
-                      keyPrototype,
-                      valuePrototype,
-                      redisMasterOnly ? ReadFrom.MASTER : ReadFrom.NEAREST)
-                  : createRedisRemoteCache(name, redisClient.get(), keyPrototype, valuePrototype));
+          options,
+          metrics,
+          remoteCache,
+          loadLease,
+          invalidationChannel);
     }
 
-    private <K extends Message, V extends Message> RemoteCache<K, V> createRedisRemoteCache(
+    private <K extends Message> InvalidationChannel<K> createInvalidationChannel(
+        String name, K keyPrototype) {
+      RedisCodec<String, byte[]> codec = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+      String channel = name + ":invalidations";
+      if (config.isCluster()) {
+        RedisClusterClient client = redisClusterClient.get();
+        return new RedisInvalidationChannel<>(
+            channel, keyPrototype, client.connect(codec).async(), client.connectPubSub(codec));
+      } else {
+        RedisClient client = redisClient.get();
+        return new RedisInvalidationChannel<>(
+            channel, keyPrototype, client.connect(codec).async(), client.connectPubSub(codec));
+      }
+    }
+
+    private <K extends Message, V extends Message> ProtobufRedisCodec<K, V> createCodec(
         String name,
-        RedisClusterClient redisClient,
         K keyPrototype,
         V valuePrototype,
-        ReadFrom readFrom) {
-      StatefulRedisClusterConnection<K, V> connection =
-          redisClient.connect(
-              new ProtobufRedisCodec<>(
-                  (name + ":").getBytes(StandardCharsets.UTF_8), keyPrototype, valuePrototype));
-      connection.setReadFrom(readFrom);
-      return new RedisRemoteCache<>(connection.async(), name, meterRegistry);
+        RedisCacheOptions options,
+        @Nullable CacheMetrics metrics) {
+      return new ProtobufRedisCodec<>(
+          (name + ":").getBytes(StandardCharsets.UTF_8),
+          keyPrototype,
+          valuePrototype,
+          options.valueCompressionThreshold() > 0
+              ? new ValueCompressor(options.valueCompressionThreshold(), name, meterRegistry)
+              : null,
+          metrics);
+    }
+
+    private ReadFrom replicaReadFrom() {
+      if (!config.isCluster() || !config.isLatencyAwareReads()) {
+        return ReadFrom.NEAREST;
+      }
+      CommandLatencyRecorder latencyRecorder =
+          redisClusterClient.get().getResources().commandLatencyRecorder();
+      checkState(
+          latencyRecorder instanceof MicrometerCommandLatencyCollector,
+          "Latency aware reads require the redis client provided by RedisModule.");
+      return new LatencyAwareReadFrom((MicrometerCommandLatencyCollector) latencyRecorder);
     }
 
     private <K extends Message, V extends Message> RemoteCache<K, V> createRedisRemoteCache(
-        String name, RedisClient redisClient, K keyPrototype, V valuePrototype) {
-      StatefulRedisConnection<K, V> connection =
-          redisClient.connect(
-              new ProtobufRedisCodec<>(
-                  (name + ":").getBytes(StandardCharsets.UTF_8), keyPrototype, valuePrototype));
-      return new RedisRemoteCache<>(connection.async(), name, meterRegistry);
+        String name,
+        ProtobufRedisCodec<K, V> codec,
+        ReadFrom readFrom,
+        boolean traceRequests,
+        boolean flushPerRequest) {
+      if (config.isCluster()) {
+        StatefulRedisClusterConnection<K, V> connection = redisClusterClient.get().connect(codec);
+        connection.setReadFrom(readFrom);
+        return new RedisRemoteCache<>(
+            connection.async(), name, meterRegistry, traceRequests, flushPerRequest);
+      } else {
+        StatefulRedisConnection<K, V> connection = redisClient.get().connect(codec);
+        return new RedisRemoteCache<>(
+            connection.async(), name, meterRegistry, traceRequests, flushPerRequest);
+      }
     }
   }
 
   private static final Logger logger = LogManager.getLogger();
 
+  private static final int NUM_JITTERED_TTLS = 16;
+
+  private final CacheMetrics metrics;
   private final RemoteCache<K, V> remoteCache;
-  private final AsyncLoadingCache<K, V> cache;
-  private final SetArgs setArgs;
+  @Nullable private final LoadLease<K, V> loadLease;
+  @Nullable private final InvalidationChannel<K> invalidationChannel;
+  private final AsyncLoadingCache<K, LocalValue<K, V>> cache;
+  @Nullable private final HotKeyDetector<K> hotKeyDetector;
+  // Hot keys served locally, regardless of the local cache.
+  @Nullable private final AsyncCache<K, LocalValue<K, V>> pinnedHotKeys;
+  // Values are written with one of these, chosen at random, to spread out expiration.
+  private final List<SetArgs> valueSetArgs;
+  private final V absentValue;
+  @Nullable private final SetArgs absentSetArgs;
+  private final long redisTtlMillis;
+  @Nullable private final Duration refreshAfterWrite;
+  private final double earlyRefreshBeta;
+
+  // Keys whose remote value is currently being refreshed by this server.
+  private final Set<K> refreshingKeys = ConcurrentHashMap.newKeySet();
 
   ProtobufRedisLoadingCache(
       K keyPrototype,
       V valuePrototype,
-      Duration redisTtl,
-      @Nullable CaffeineSpec localCacheSpec,
-      RemoteCache<K, V> remoteCache) {
+      RedisCacheOptions options,
+      CacheMetrics metrics,
+      RemoteCache<K, V> remoteCache,
+      @Nullable LoadLease<K, V> loadLease,
+      @Nullable InvalidationChannel<K> invalidationChannel) {
     checkNotNull(keyPrototype, "keyPrototype");
     checkNotNull(valuePrototype, "valuePrototype");
-    checkNotNull(redisTtl, "redisTtl");
+    checkNotNull(options, "options");
+    this.metrics = checkNotNull(metrics, "metrics");
     this.remoteCache = checkNotNull(remoteCache, "remoteCache");
+    this.loadLease = loadLease;
+    this.invalidationChannel = invalidationChannel;
+    CaffeineSpec localCacheSpec = options.localCacheSpec();
+    refreshAfterWrite = options.refreshAfterWrite();
     final Caffeine<Object, Object> caffeineBuilder =
         localCacheSpec != null
             ? Caffeine.from(localCacheSpec)
             : Caffeine.newBuilder().maximumSize(0);
+    if (localCacheSpec != null && refreshAfterWrite != null) {
+      caffeineBuilder.refreshAfterWrite(refreshAfterWrite);
+    }
     cache =
         caffeineBuilder
+            .recordStats()
             .executor(CurrentRequestContextExecutor.INSTANCE)
-            .buildAsync((k, executor) -> remoteCache.get(k).toCompletableFuture());
-    setArgs = SetArgs.Builder.px(redisTtl.toMillis());
+            .buildAsync(new LocalCacheLoader());
+    metrics.monitorLocalCache(cache.synchronous());
+    redisTtlMillis = options.redisTtl().toMillis();
+    valueSetArgs = createValueSetArgs(redisTtlMillis, options.redisTtlJitter());
+    earlyRefreshBeta = options.earlyRefreshBeta();
+    absentValue = ProtobufRedisCodec.absentValue(valuePrototype);
+    Duration absentTtl = options.absentTtl();
+    absentSetArgs = absentTtl != null ? SetArgs.Builder.px(absentTtl.toMillis()) : null;
+    Duration hotKeyPinDuration = options.hotKeyPinDuration();
+    if (hotKeyPinDuration != null) {
+      hotKeyDetector =
+          new HotKeyDetector<>(
+              options.hotKeyThreshold(), options.maxHotKeys(), metrics::recordHotKeys);
+      pinnedHotKeys =
+          Caffeine.newBuilder()
+              .expireAfterWrite(hotKeyPinDuration)
+              .maximumSize(options.maxHotKeys())
+              .executor(CurrentRequestContextExecutor.INSTANCE)
+              .buildAsync();
+    } else {
+      hotKeyDetector = null;
+      pinnedHotKeys = null;
+    }
+    if (invalidationChannel != null) {
+      invalidationChannel.subscribe(this::invalidateLocal);
+    }
   }
 
   /**
    * Returns the value for the given {@code key}, computing the value from {@code loader} if it is
-   * not present in cache.
+   * not present in cache. If {@link RedisCacheOptions#refreshAfterWrite()} is set, {@code loader}
+   * is also used to refresh the value in the background, as it is when {@link
+   * RedisCacheOptions#earlyRefreshBeta()} is set. If {@link RedisCacheOptions#absentTtl()} is set,
+   * a {@code null} result from {@code loader} is cached. If {@link
+   * RedisCacheOptions#hotKeyPinDuration()} is set, hot keys are served locally.
    */
   public ListenableFuture<V> get(K key, Function<K, ListenableFuture<V>> loader) {
+    final CompletableFuture<LocalValue<K, V>> value;
+    if (hotKeyDetector != null && hotKeyDetector.recordAccess(key)) {
+      value = checkNotNull(pinnedHotKeys).get(key, (k, unused) -> getLocal(k, loader));
+    } else {
+      value = getLocal(key, loader);
+    }
+    return CompletableFuturesExtra.toListenableFuture(value.thenApply(LocalValue::valueOrNull));
+  }
+
+  private CompletableFuture<LocalValue<K, V>> getLocal(
+      K key, Function<K, ListenableFuture<V>> loader) {
+    return cache.get(key, (k, executor) -> loadLocalValue(k, executor, loader));
+  }
+
+  /**
+   * Returns the values for the given {@code keys}, computing values not present in cache with a
+   * single call to {@code bulkLoader}. Keys missing from the local cache are read from the remote
+   * cache with a single MGET, and loaded values are written back to the remote cache together. Keys
+   * which are neither cached nor returned by {@code bulkLoader} are not present in the returned
+   * {@link Map}. If {@link RedisCacheOptions#absentTtl()} is set, keys not returned by {@code
+   * bulkLoader} are cached as absent.
+   */
+  public ListenableFuture<Map<K, V>> getAll(
+      Iterable<K> keys, Function<Set<K>, ListenableFuture<Map<K, V>>> bulkLoader) {
     return CompletableFuturesExtra.toListenableFuture(
-        cache.get(key, (k, executor) -> loadWithCache(k, executor, loader)));
+        cache
+            .getAll(
+                keys,
+                (ks, executor) ->
+                    loadAllWithCache(ks, executor, bulkLoader)
+                        .thenApply(
+                            values ->
+                                ImmutableMap.copyOf(
+                                    Maps.transformValues(values, v -> toLocalValue(v, null)))))
+            .thenApply(
+                values ->
+                    ImmutableMap.copyOf(
+                        Maps.filterValues(
+                            Maps.transformValues(values, LocalValue::valueOrNull),
+                            Objects::nonNull))));
   }
 
   /**
@@ -215,7 +452,8 @@ public class ProtobufRedisLoadingCache<K extends Message, V extends Message> {
    * null}.
    */
   public ListenableFuture<V> getIfPresent(K key) {
-    return CompletableFuturesExtra.toListenableFuture(cache.get(key));
+    return CompletableFuturesExtra.toListenableFuture(
+        cache.get(key).thenApply(LocalValue::valueOrNull));
   }
 
   /**
@@ -226,52 +464,399 @@ public class ProtobufRedisLoadingCache<K extends Message, V extends Message> {
    */
   public ListenableFuture<V> put(K key, V value) {
     CompletableFuture<V> setAndReturnValueFuture =
-        remoteCache.set(key, value, setArgs).thenApply(unused -> value).toCompletableFuture();
-    cache.put(key, setAndReturnValueFuture);
+        remoteCache
+            .set(key, value, valueSetArgs())
+            .thenCompose(unused -> publishInvalidation(key))
+            .thenApply(unused -> value)
+            .toCompletableFuture();
+    cache.put(key, setAndReturnValueFuture.thenApply(v -> new LocalValue<K, V>(v)));
+    if (pinnedHotKeys != null) {
+      pinnedHotKeys.synchronous().invalidate(key);
+    }
     return CompletableFuturesExtra.toListenableFuture(setAndReturnValueFuture);
   }
 
   /**
    * Deletes the given {@code key} from the remote cache. This can be used to invalidate remote
-   * caches. It is not practical to invalidate local caches across servers, so this is only useful
-   * if the local cache is disabled everywhere (i.e., {@code localCacheSpec} is null on
-   * construction).
+   * caches. Local caches on other servers are only invalidated if {@link
+   * RedisCacheOptions#invalidateLocalCaches()} is enabled, otherwise this is only useful if the
+   * local cache is disabled everywhere (i.e., {@code localCacheSpec} is null on construction).
    *
    * @return a {@link ListenableFuture} which completes with {@code true} if the key was present and
    *     deleted or {@code false} if the key was not present at all.
    */
   public ListenableFuture<Boolean> deleteFromRedis(K key) {
     return CompletableFuturesExtra.toListenableFuture(
-        remoteCache.del(key).thenApply(num -> num == 1));
+        remoteCache
+            .del(key)
+            .thenCompose(num -> publishInvalidation(key).thenApply(unused -> num == 1)));
+  }
+
+  private void invalidateLocal(K key) {
+    cache.synchronous().invalidate(key);
+    remoteCache.invalidateLocal(key);
+    if (pinnedHotKeys != null) {
+      pinnedHotKeys.synchronous().invalidate(key);
+    }
+  }
+
+  /**
+   * Publishes {@code key} to the invalidation channel if enabled, completing with the number of
+   * servers that received it.
+   */
+  private CompletionStage<Long> publishInvalidation(K key) {
+    if (invalidationChannel == null) {
+      return CompletableFuture.completedFuture(0L);
+    }
+    return invalidationChannel.publish(key);
+  }
+
+  private CompletableFuture<LocalValue<K, V>> loadLocalValue(
+      K key, Executor executor, Function<K, ListenableFuture<V>> loader) {
+    return loadWithCache(key, executor, loader)
+        .thenApply(
+            value -> {
+              if (value == null) {
+                return absentSetArgs != null ? new LocalValue<>(null, loader) : null;
+              }
+              return toLocalValue(value, loader);
+            });
+  }
+
+  private LocalValue<K, V> toLocalValue(
+      V value, @Nullable Function<K, ListenableFuture<V>> loader) {
+    return new LocalValue<>(value != absentValue ? value : null, loader);
+  }
+
+  /** Writes a loaded value to the remote cache, caching absence if enabled. */
+  private CompletionStage<String> storeLoaded(K key, @Nullable V value) {
+    if (value != null) {
+      return remoteCache.set(key, value, valueSetArgs());
+    }
+    if (absentSetArgs != null) {
+      return remoteCache.set(key, absentValue, absentSetArgs);
+    }
+    return CompletableFuture.completedFuture(null);
   }
 
   @SuppressWarnings("FutureReturnValueIgnored") // Intentional
   private CompletableFuture<V> loadWithCache(
       K key, Executor executor, Function<K, ListenableFuture<V>> loader) {
     final CompletionStage<V> fromCache;
+    @Nullable final CompletionStage<Long> ttlFromCache;
     try {
       fromCache = remoteCache.get(key);
+      // Issued together with the GET so both are pipelined in the same round trip.
+      ttlFromCache =
+          refreshAfterWrite != null || earlyRefreshBeta > 0 ? remoteCache.pttl(key) : null;
     } catch (RedisException t) {
       logger.warn("Error reading from remoteCache cache. Computing value anyways.", t);
-      return ListenableFuturesExtra.toCompletableFuture(loader.apply(key));
+      return load(key, loader);
     }
     return fromCache
         .handleAsync(
             (cached, t) -> {
               if (cached != null) {
+                metrics.recordRemoteHits(1);
+                // Absent results have their own TTL and are never refreshed.
+                if (ttlFromCache != null && cached != absentValue) {
+                  ttlFromCache.thenAcceptAsync(
+                      pttl -> maybeRefreshRemote(key, pttl, executor, loader), executor);
+                }
                 return CompletableFuture.completedFuture(cached);
               }
+              metrics.recordRemoteMisses(1);
               if (t != null) {
                 logger.warn("Error reading from remoteCache cache. Computing value anyways.", t);
+              } else if (loadLease != null) {
+                return loadWithLease(key, executor, loader);
               }
-              CompletableFuture<V> loaded =
-                  ListenableFuturesExtra.toCompletableFuture(loader.apply(key));
-              loaded.thenAcceptAsync(val -> remoteCache.set(key, val, setArgs), executor);
-              return loaded;
+              return loadAndStore(key, executor, loader);
             },
             executor)
         // Converts CompletionStage<CompletionStage<U>> to CompletionStage<U>
         .thenCompose(Function.identity())
         .toCompletableFuture();
   }
+
+  private CompletableFuture<V> load(K key, Function<K, ListenableFuture<V>> loader) {
+    return metrics.recordLoad(() -> loader.apply(key));
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private CompletableFuture<V> loadAndStore(
+      K key, Executor executor, Function<K, ListenableFuture<V>> loader) {
+    CompletableFuture<V> loaded = load(key, loader);
+    loaded.thenAcceptAsync(val -> storeLoaded(key, val), executor);
+    return loaded;
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private CompletableFuture<V> loadWithLease(
+      K key, Executor executor, Function<K, ListenableFuture<V>> loader) {
+    LoadLease<K, V> loadLease = checkNotNull(this.loadLease);
+    return loadLease
+        .tryAcquire(key)
+        .handleAsync(
+            (acquired, t) -> {
+              if (t != null) {
+                logger.warn("Error acquiring load lease. Computing value anyways.", t);
+                return loadAndStore(key, executor, loader);
+              }
+              if (!acquired) {
+                return waitForLeasedValue(key, executor, loader, System.nanoTime());
+              }
+              return loadWithAcquiredLease(key, executor, loader);
+            },
+            executor)
+        .thenCompose(Function.identity())
+        .toCompletableFuture();
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private CompletableFuture<V> loadWithAcquiredLease(
+      K key, Executor executor, Function<K, ListenableFuture<V>> loader) {
+    LoadLease<K, V> loadLease = checkNotNull(this.loadLease);
+    CompletableFuture<V> loaded = load(key, loader);
+    // Release only after the value is written so waiting servers find it.
+    loaded
+        .thenComposeAsync(val -> storeLoaded(key, val), executor)
+        .whenComplete((unused, unusedT) -> loadLease.release(key));
+    return loaded;
+  }
+
+  /**
+   * Polls for the value being loaded by the holder of the lease. On each miss, tries to acquire the
+   * lease again, so if the holder released it without writing a value, e.g. because the loader
+   * returned {@code null} or the write failed, one waiter takes over the load instead of all of
+   * them waiting for the lease to expire. After waiting for the lease duration, loads the value
+   * itself so the wait is bounded even if other servers keep taking the lease.
+   */
+  private CompletableFuture<V> waitForLeasedValue(
+      K key, Executor executor, Function<K, ListenableFuture<V>> loader, long startNanos) {
+    LoadLease<K, V> loadLease = checkNotNull(this.loadLease);
+    return CompletableFuture.supplyAsync(
+            () -> remoteCache.get(key), loadLease.pollExecutor(executor))
+        .thenCompose(Function.identity())
+        .handleAsync(
+            (cached, t) -> {
+              if (cached != null) {
+                loadLease.recordWait(startNanos);
+                return CompletableFuture.completedFuture(cached);
+              }
+              if (t != null) {
+                logger.warn("Error reading from remoteCache cache. Computing value anyways.", t);
+                loadLease.recordFallback();
+                return loadAndStore(key, executor, loader);
+              }
+              if (loadLease.waitExpired(startNanos)) {
+                loadLease.recordFallback();
+                return loadAndStore(key, executor, loader);
+              }
+              return loadLease
+                  .tryAcquire(key)
+                  .handleAsync(
+                      (acquired, acquireError) -> {
+                        if (acquireError != null) {
+                          logger.warn(
+                              "Error acquiring load lease. Computing value anyways.",
+                              acquireError);
+                          loadLease.recordFallback();
+                          return loadAndStore(key, executor, loader);
+                        }
+                        if (acquired) {
+                          loadLease.recordWait(startNanos);
+                          return loadWithAcquiredLease(key, executor, loader);
+                        }
+                        return waitForLeasedValue(key, executor, loader, startNanos);
+                      },
+                      executor)
+                  .thenCompose(Function.identity());
+            },
+            executor)
+        .thenCompose(Function.identity());
+  }
+
+  private boolean shouldRefreshRemote(long pttl) {
+    // Negative PTTL means the key has already expired or has no expiration.
+    if (pttl < 0) {
+      return false;
+    }
+    // With jitter, the value may have been written with a shorter TTL, so this underestimates its
+    // age by up to the jitter.
+    if (refreshAfterWrite != null && redisTtlMillis - pttl >= refreshAfterWrite.toMillis()) {
+      return true;
+    }
+    if (earlyRefreshBeta > 0) {
+      // XFetch - the probability of refreshing grows as the remaining TTL approaches the time it
+      // takes to load a value.
+      // https://cseweb.ucsd.edu/~avattani/papers/cache_stampede.pdf
+      double loadMillis = metrics.averageLoadNanos() / 1_000_000.0;
+      return -loadMillis * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble())
+          >= pttl;
+    }
+    return false;
+  }
+
+  private SetArgs valueSetArgs() {
+    if (valueSetArgs.size() == 1) {
+      return valueSetArgs.get(0);
+    }
+    return valueSetArgs.get(ThreadLocalRandom.current().nextInt(valueSetArgs.size()));
+  }
+
+  /**
+   * Creates the {@link SetArgs} values are written with. With jitter, a fixed number of TTLs are
+   * spread over the jitter range rather than randomizing every write, so writes can still be
+   * batched by {@link SetArgs}.
+   */
+  private static List<SetArgs> createValueSetArgs(long redisTtlMillis, double jitter) {
+    long jitterMillis = (long) (redisTtlMillis * jitter);
+    if (jitterMillis == 0) {
+      return ImmutableList.of(SetArgs.Builder.px(redisTtlMillis));
+    }
+    ImmutableList.Builder<SetArgs> setArgs = ImmutableList.builder();
+    for (int i = 0; i < NUM_JITTERED_TTLS; i++) {
+      setArgs.add(SetArgs.Builder.px(redisTtlMillis - jitterMillis * i / (NUM_JITTERED_TTLS - 1)));
+    }
+    return setArgs.build();
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private void maybeRefreshRemote(
+      K key, long pttl, Executor executor, Function<K, ListenableFuture<V>> loader) {
+    if (!shouldRefreshRemote(pttl) || !refreshingKeys.add(key)) {
+      return;
+    }
+    load(key, loader)
+        .thenComposeAsync(val -> storeLoaded(key, val), executor)
+        .whenComplete(
+            (unused, t) -> {
+              refreshingKeys.remove(key);
+              if (t != null) {
+                logger.warn("Error refreshing remoteCache cache.", t);
+              }
+            });
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private CompletableFuture<Map<K, V>> loadAllWithCache(
+      Set<? extends K> keys,
+      Executor executor,
+      Function<Set<K>, ListenableFuture<Map<K, V>>> loader) {
+    final CompletionStage<List<KeyValue<K, V>>> fromCache;
+    try {
+      fromCache = remoteCache.mget(ImmutableList.copyOf(keys));
+    } catch (RedisException t) {
+      logger.warn("Error reading from remoteCache cache. Computing values anyways.", t);
+      return metrics.recordLoad(() -> loader.apply(ImmutableSet.copyOf(keys)));
+    }
+    return fromCache
+        .handleAsync(
+            (cached, t) -> {
+              if (t != null) {
+                logger.warn("Error reading from remoteCache cache. Computing values anyways.", t);
+              }
+              Map<K, V> values = new HashMap<>();
+              if (cached != null) {
+                for (KeyValue<K, V> keyValue : cached) {
+                  if (keyValue.hasValue()) {
+                    values.put(keyValue.getKey(), keyValue.getValue());
+                  }
+                }
+              }
+              Set<K> missing = ImmutableSet.copyOf(Sets.difference(keys, values.keySet()));
+              metrics.recordRemoteHits(values.size());
+              metrics.recordRemoteMisses(missing.size());
+              if (missing.isEmpty()) {
+                return CompletableFuture.completedFuture(values);
+              }
+              CompletableFuture<Map<K, V>> loaded = metrics.recordLoad(() -> loader.apply(missing));
+              loaded.thenAcceptAsync(vals -> storeAllLoaded(missing, vals), executor);
+              return loaded.thenApply(
+                  vals -> {
+                    values.putAll(vals);
+                    if (absentSetArgs != null) {
+                      for (K key : missing) {
+                        values.putIfAbsent(key, absentValue);
+                      }
+                    }
+                    return values;
+                  });
+            },
+            executor)
+        // Converts CompletionStage<CompletionStage<U>> to CompletionStage<U>
+        .thenCompose(Function.identity())
+        .toCompletableFuture();
+  }
+
+  /** Writes loaded values to the remote cache, caching absence of missing keys if enabled. */
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private void storeAllLoaded(Set<K> keys, Map<K, V> loaded) {
+    remoteCache.setAll(loaded, valueSetArgs());
+    if (absentSetArgs != null) {
+      Set<K> absentKeys = Sets.difference(keys, loaded.keySet());
+      if (!absentKeys.isEmpty()) {
+        remoteCache.setAll(
+            ImmutableMap.copyOf(Maps.asMap(absentKeys, unused -> absentValue)), absentSetArgs);
+      }
+    }
+  }
+
+  /**
+   * Loads values into the local cache. Values loaded by {@link #get(Message, Function)} remember
+   * their loader so refreshes can recompute them, while other values can only be refreshed from
+   * the remote cache.
+   */
+  private class LocalCacheLoader implements AsyncCacheLoader<K, LocalValue<K, V>> {
+
+    @Override
+    public CompletableFuture<LocalValue<K, V>> asyncLoad(K key, Executor executor) {
+      return remoteCache
+          .get(key)
+          .thenApply(
+              value -> {
+                if (value == null) {
+                  metrics.recordRemoteMisses(1);
+                  return null;
+                }
+                metrics.recordRemoteHits(1);
+                return toLocalValue(value, null);
+              })
+          .toCompletableFuture();
+    }
+
+    @Override
+    public CompletableFuture<LocalValue<K, V>> asyncReload(
+        K key, LocalValue<K, V> oldValue, Executor executor) {
+      if (oldValue.loader == null) {
+        return asyncLoad(key, executor);
+      }
+      return loadLocalValue(key, executor, oldValue.loader);
+    }
+  }
+
+  /**
+   * A value in the local cache, along with the loader used to compute it if known. The value is
+   * {@code null} for a cached absent result.
+   */
+  private static final class LocalValue<K, V> {
+
+    @Nullable
+    private static <V> V valueOrNull(@Nullable LocalValue<?, V> localValue) {
+      return localValue != null ? localValue.value : null;
+    }
+
+    @Nullable private final V value;
+    @Nullable private final Function<K, ListenableFuture<V>> loader;
+
+    private LocalValue(V value) {
+      this(value, null);
+    }
+
+    private LocalValue(@Nullable V value, @Nullable Function<K, ListenableFuture<V>> loader) {
+      this.value = value;
+      this.loader = loader;
+    }
+  }
 }
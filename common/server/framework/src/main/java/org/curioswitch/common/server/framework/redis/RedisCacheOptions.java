@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import java.time.Duration;
+import javax.annotation.Nullable;
+import org.curioswitch.common.server.framework.immutables.CurioStyle;
+import org.immutables.value.Value.Check;
+import org.immutables.value.Value.Immutable;
+
+/** Options for configuring a {@link ProtobufRedisLoadingCache}. */
+@Immutable
+@CurioStyle
+public interface RedisCacheOptions {
+
+  class Builder extends ImmutableRedisCacheOptions.Builder {}
+
+  /**
+   * The time until expiration of a value in the remote cache. The local cache should be considered
+   * in {@link #localCacheSpec()}.
+   */
+  Duration redisTtl();
+
+  /**
+   * Whether remote cache reads should only happen from master. Best-effort, temporary persistent
+   * storage should set this to {@code true}.
+   */
+  default boolean redisMasterOnly() {
+    return false;
+  }
+
+  /**
+   * A {@link CaffeineSpec} to control the local cache layer. If {@code null}, local caching will be
+   * disabled.
+   */
+  @Nullable
+  CaffeineSpec localCacheSpec();
+
+  /**
+   * The age after which a cached value is refreshed in the background. Reads of a value older than
+   * this return the stale value immediately while the loader is run to replace it, in both the
+   * local and remote cache. The remote value is refreshed when its remaining PTTL shows it was
+   * written more than this long ago, so this should be sufficiently smaller than {@link
+   * #redisTtl()} for the refresh to complete before expiration. If {@code null}, values are only
+   * loaded after they expire. {@link #localCacheSpec()} must not also specify {@code
+   * refreshAfterWrite}.
+   */
+  @Nullable
+  Duration refreshAfterWrite();
+
+  /**
+   * Whether to invalidate local caches across servers. When enabled, {@link
+   * ProtobufRedisLoadingCache#put} and {@link ProtobufRedisLoadingCache#deleteFromRedis} publish
+   * the key on a redis channel for this cache, and every server using the cache evicts the key from
+   * its local cache when receiving it, including the publishing server. Local caches may still
+   * briefly serve stale values due to the asynchronous delivery, so the local cache should also
+   * have an expiration to bound staleness.
+   */
+  default boolean invalidateLocalCaches() {
+    return false;
+  }
+
+  /**
+   * The serialized size in bytes at or above which values are compressed with LZ4 before being
+   * written to the remote cache. Values are only stored compressed when it reduces their size.
+   * Compressed values can always be read, so this can be changed on a cache with existing values.
+   * If 0, values are not compressed.
+   */
+  default int valueCompressionThreshold() {
+    return 0;
+  }
+
+  /**
+   * The fraction of {@link #redisTtl()} by which the TTL of written values is randomly shortened,
+   * so values written together don't all expire together. For example, {@code 0.1} writes values
+   * with TTLs between 90% and 100% of {@link #redisTtl()}. Defaults to {@code 0}, no jitter.
+   */
+  default double redisTtlJitter() {
+    return 0;
+  }
+
+  /**
+   * The beta of probabilistic early refresh (XFetch) of remote values. When greater than {@code
+   * 0}, a read of a remote value refreshes it in the background with a probability that grows as
+   * its remaining TTL approaches the average time the loader takes. {@code 1} is a reasonable
+   * default, with larger values refreshing earlier. Defaults to {@code 0}, disabled.
+   */
+  default double earlyRefreshBeta() {
+    return 0;
+  }
+
+  /**
+   * The number of connections to redis used by the cache. Commands for a single connection are
+   * serialized through one socket and one event loop, so busy caches on servers with many cores may
+   * benefit from more connections. Requests are routed to connections by key, so requests for the
+   * same key stay ordered. Writes buffered by {@link #writeCoalescingWindow()} always use a single
+   * dedicated connection. Defaults to 1.
+   */
+  default int redisConnections() {
+    return 1;
+  }
+
+  /**
+   * The maximum total size in bytes of encoded values kept in an off-heap tier between the local
+   * cache and redis. Values in the tier are stored serialized in direct buffers and only decoded
+   * when read, so many more values can be kept locally than in {@link #localCacheSpec()} without
+   * growing the heap. Defaults to {@code 0}, no off-heap tier.
+   */
+  default long offHeapMaxBytes() {
+    return 0;
+  }
+
+  /**
+   * The maximum time until expiration of a value in the off-heap tier. Values read from redis also
+   * expire no later than they do in redis. The tier doesn't see values refreshed by other servers
+   * until its copy expires, so this should be short if values change often. If {@code null}, {@link
+   * #refreshAfterWrite()} is used if set, otherwise {@link #redisTtl()}.
+   */
+  @Nullable
+  Duration offHeapExpireAfterWrite();
+
+  /**
+   * The time until expiration of an absent result in the remote cache. If set, a {@code null}
+   * result from a loader is cached, and later reads of the key return {@code null} without calling
+   * the loader until it expires. Absent results in the local cache follow {@link
+   * #localCacheSpec()} like other values. Should usually be much shorter than {@link #redisTtl()}
+   * since the key may be created later. If {@code null}, absent results are not cached.
+   */
+  @Nullable
+  Duration absentTtl();
+
+  /**
+   * The duration of the lease taken by a server loading a value missing from the remote cache.
+   * While a server holds the lease, other servers missing the same key wait for the value to be
+   * written, polling every {@link #loadLeasePollInterval()}, instead of running the loader
+   * themselves. A waiting server takes over the lease if it is released without a value being
+   * written, and after waiting for this duration a server runs the loader itself. If {@code null},
+   * every server with a miss runs the loader.
+   */
+  @Nullable
+  Duration loadLeaseDuration();
+
+  /**
+   * The interval at which servers waiting for another server's load lease check for the value.
+   * Defaults to 20ms.
+   */
+  default Duration loadLeasePollInterval() {
+    return Duration.ofMillis(20);
+  }
+
+  /**
+   * The window for coalescing writes to the remote cache. If set, writes are buffered for up to
+   * this duration, or until {@link #writeCoalescingMaxBatchSize()} keys are buffered, and written
+   * together as a pipelined batch on a connection dedicated to writes. Multiple writes to the same
+   * key within the window result in a single write. Futures for writes, such as the one returned
+   * by {@link ProtobufRedisLoadingCache#put}, still complete only once the write is acknowledged.
+   * If {@code null}, each write is issued immediately.
+   */
+  @Nullable
+  Duration writeCoalescingWindow();
+
+  /**
+   * The maximum number of keys buffered before writes are flushed when {@link
+   * #writeCoalescingWindow()} is set. Defaults to 128.
+   */
+  default int writeCoalescingMaxBatchSize() {
+    return 128;
+  }
+
+  /**
+   * The duration hot keys are served from a local pin for. If set, reads through {@link
+   * ProtobufRedisLoadingCache#get} are counted in a frequency sketch, and keys read at least {@link
+   * #hotKeyThreshold()} times within a sampling period are served locally for this duration, even
+   * if {@link #localCacheSpec()} is {@code null}. This protects a single redis shard from skewed
+   * traffic to a few keys. The frequencies of the hottest keys are exported in the {@code
+   * redis.hotKeys} gauge, tagged by rank, and the keys themselves are logged at debug level. If
+   * {@code null}, hot keys are not detected.
+   */
+  @Nullable
+  Duration hotKeyPinDuration();
+
+  /**
+   * The estimated number of reads of a key within a sampling period, roughly 40000 reads of the
+   * cache, for it to be considered hot. Defaults to 100.
+   */
+  default int hotKeyThreshold() {
+    return 100;
+  }
+
+  /** The maximum number of hot keys to pin and export. Defaults to 10. */
+  default int maxHotKeys() {
+    return 10;
+  }
+
+  /**
+   * Whether to create a tracing span for each remote cache request, tagged with the name of the
+   * cache. Lettuce creates spans for individual commands regardless of this setting when tracing is
+   * enabled.
+   */
+  default boolean traceRequests() {
+    return false;
+  }
+
+  @Check
+  default void check() {
+    checkArgument(
+        valueCompressionThreshold() >= 0, "valueCompressionThreshold must not be negative");
+    checkArgument(
+        !loadLeasePollInterval().isNegative() && !loadLeasePollInterval().isZero(),
+        "loadLeasePollInterval must be positive");
+    checkArgument(offHeapMaxBytes() >= 0, "offHeapMaxBytes must not be negative");
+    Duration offHeapExpireAfterWrite = offHeapExpireAfterWrite();
+    if (offHeapExpireAfterWrite != null) {
+      checkArgument(
+          !offHeapExpireAfterWrite.isNegative() && !offHeapExpireAfterWrite.isZero(),
+          "offHeapExpireAfterWrite must be positive");
+      checkArgument(
+          offHeapExpireAfterWrite.compareTo(redisTtl()) <= 0,
+          "offHeapExpireAfterWrite must not be longer than redisTtl");
+    }
+    checkArgument(redisConnections() > 0, "redisConnections must be positive");
+    checkArgument(hotKeyThreshold() > 0, "hotKeyThreshold must be positive");
+    checkArgument(maxHotKeys() > 0, "maxHotKeys must be positive");
+    Duration hotKeyPinDuration = hotKeyPinDuration();
+    if (hotKeyPinDuration != null) {
+      checkArgument(
+          !hotKeyPinDuration.isNegative() && !hotKeyPinDuration.isZero(),
+          "hotKeyPinDuration must be positive");
+    }
+    checkArgument(
+        redisTtlJitter() >= 0 && redisTtlJitter() < 1, "redisTtlJitter must be in [0, 1)");
+    checkArgument(earlyRefreshBeta() >= 0, "earlyRefreshBeta must not be negative");
+    checkArgument(
+        writeCoalescingMaxBatchSize() > 0, "writeCoalescingMaxBatchSize must be positive");
+    Duration writeCoalescingWindow = writeCoalescingWindow();
+    if (writeCoalescingWindow != null) {
+      checkArgument(
+          !writeCoalescingWindow.isNegative() && !writeCoalescingWindow.isZero(),
+          "writeCoalescingWindow must be positive");
+    }
+    Duration absentTtl = absentTtl();
+    if (absentTtl != null) {
+      checkArgument(
+          !absentTtl.isNegative() && !absentTtl.isZero(), "absentTtl must be positive");
+      checkArgument(
+          absentTtl.compareTo(redisTtl()) <= 0, "absentTtl must not be longer than redisTtl");
+    }
+    Duration loadLeaseDuration = loadLeaseDuration();
+    if (loadLeaseDuration != null) {
+      checkArgument(
+          !loadLeaseDuration.isNegative() && !loadLeaseDuration.isZero(),
+          "loadLeaseDuration must be positive");
+    }
+    Duration refreshAfterWrite = refreshAfterWrite();
+    if (refreshAfterWrite != null) {
+      checkArgument(
+          !refreshAfterWrite.isNegative() && !refreshAfterWrite.isZero(),
+          "refreshAfterWrite must be positive");
+      checkArgument(
+          refreshAfterWrite.compareTo(redisTtl()) < 0,
+          "refreshAfterWrite must be less than redisTtl");
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An {@link InvalidationChannel} using redis pub/sub. Publishing and subscribing need separate
+ * connections since a connection that has subscribed cannot issue other commands. Messages are the
+ * serialized key prefixed with a random ID of the publishing channel, so a server ignores its own
+ * invalidations.
+ */
+class RedisInvalidationChannel<K extends Message> implements InvalidationChannel<K> {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final int ORIGIN_ID_LENGTH = 16;
+
+  private final String channel;
+  private final K keyPrototype;
+  private final RedisClusterAsyncCommands<String, byte[]> publisher;
+  private final StatefulRedisPubSubConnection<String, byte[]> subscriber;
+  private final byte[] originId = new byte[ORIGIN_ID_LENGTH];
+
+  RedisInvalidationChannel(
+      String channel,
+      K keyPrototype,
+      RedisClusterAsyncCommands<String, byte[]> publisher,
+      StatefulRedisPubSubConnection<String, byte[]> subscriber) {
+    this.channel = channel;
+    this.keyPrototype = keyPrototype;
+    this.publisher = publisher;
+    this.subscriber = subscriber;
+    ThreadLocalRandom.current().nextBytes(originId);
+  }
+
+  @Override
+  public CompletionStage<Long> publish(K key) {
+    byte[] message =
+        ByteBuffer.allocate(ORIGIN_ID_LENGTH + key.getSerializedSize())
+            .put(originId)
+            .put(key.toByteArray())
+            .array();
+    return publisher.publish(channel, message);
+  }
+
+  @Override
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  public void subscribe(Consumer<K> listener) {
+    subscriber.addListener(
+        new RedisPubSubAdapter<>() {
+          @Override
+          public void message(String messageChannel, byte[] message) {
+            if (channel.equals(messageChannel) && !isOwnMessage(message)) {
+              K key = decodeKey(message);
+              if (key != null) {
+                listener.accept(key);
+              }
+            }
+          }
+        });
+    // Lettuce automatically resubscribes after reconnecting.
+    subscriber
+        .async()
+        .subscribe(channel)
+        .whenComplete(
+            (unused, t) -> {
+              if (t != null) {
+                logger.warn("Could not subscribe to invalidation channel " + channel, t);
+              }
+            });
+  }
+
+  private boolean isOwnMessage(byte[] message) {
+    return message.length >= ORIGIN_ID_LENGTH
+        && Arrays.equals(message, 0, ORIGIN_ID_LENGTH, originId, 0, ORIGIN_ID_LENGTH);
+  }
+
+  @Nullable
+  private K decodeKey(byte[] message) {
+    if (message.length < ORIGIN_ID_LENGTH) {
+      logger.warn("Invalid message on invalidation channel {}, ignoring.", channel);
+      return null;
+    }
+    try {
+      @SuppressWarnings("unchecked") // Parsed by the prototype's parser.
+      K key =
+          (K)
+              keyPrototype
+                  .getParserForType()
+                  .parseFrom(message, ORIGIN_ID_LENGTH, message.length - ORIGIN_ID_LENGTH);
+      return key;
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Invalid message on invalidation channel {}, ignoring.", channel, e);
+      return null;
+    }
+  }
+}
@@ -34,6 +34,7 @@ import dagger.Module;
 import dagger.Provides;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
 import io.lettuce.core.cluster.RedisClusterClient;
 import io.lettuce.core.resource.DefaultClientResources;
 import io.lettuce.core.tracing.BraveTracing;
@@ -67,7 +68,19 @@ public abstract class RedisModule {
                 .tracing(BraveTracing.create(tracing))
                 .build(),
             config.getUrl());
-    client.setOptions(ClusterClientOptions.builder().validateClusterNodeMembership(false).build());
+    ClusterTopologyRefreshOptions.Builder topologyRefreshOptions =
+        ClusterTopologyRefreshOptions.builder();
+    if (config.isAdaptiveTopologyRefresh()) {
+      topologyRefreshOptions.enableAllAdaptiveRefreshTriggers();
+    }
+    if (!config.getTopologyRefreshPeriod().isZero()) {
+      topologyRefreshOptions.enablePeriodicRefresh(config.getTopologyRefreshPeriod());
+    }
+    client.setOptions(
+        ClusterClientOptions.builder()
+            .validateClusterNodeMembership(false)
+            .topologyRefreshOptions(topologyRefreshOptions.build())
+            .build());
     return client;
   }
 
@@ -30,24 +30,58 @@ import brave.Span;
 import brave.Span.Kind;
 import brave.Tracer;
 import brave.Tracing;
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.SetArgs;
 import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
+/**
+ * A {@link RemoteCache} backed by redis. Records the latency and result of each request, and
+ * optionally creates a tracing span for it. If {@code flushPerRequest} is set, all the commands for
+ * a request are written to the connection in a single flush, which requires a dedicated
+ * connection.
+ */
 class RedisRemoteCache<K, V> implements RemoteCache<K, V> {
 
   private final RedisClusterAsyncCommands<K, V> redis;
   private final String name;
+  private final boolean traceRequests;
+  private final boolean flushPerRequest;
 
   private final Counter success;
   private final Counter failure;
 
-  RedisRemoteCache(RedisClusterAsyncCommands<K, V> redis, String name, MeterRegistry registry) {
+  private final Timer getDuration;
+  private final Timer mgetDuration;
+  private final Timer setDuration;
+  private final Timer setAllDuration;
+  private final Timer delDuration;
+  private final Timer pttlDuration;
+
+  RedisRemoteCache(
+      RedisClusterAsyncCommands<K, V> redis,
+      String name,
+      MeterRegistry registry,
+      boolean traceRequests,
+      boolean flushPerRequest) {
     this.redis = redis;
     this.name = name;
+    this.traceRequests = traceRequests;
+    this.flushPerRequest = flushPerRequest;
+    if (flushPerRequest) {
+      // Only valid for a connection dedicated to this cache.
+      redis.setAutoFlushCommands(false);
+    }
 
     String requests = DEFAULT_METER_ID_PREFIX.name("requests");
     success =
@@ -56,21 +90,102 @@ class RedisRemoteCache<K, V> implements RemoteCache<K, V> {
     failure =
         registry.counter(
             requests, DEFAULT_METER_ID_PREFIX.tags("result", "failure", "cache", name));
+
+    getDuration = newTimer(registry, "get", name);
+    mgetDuration = newTimer(registry, "mget", name);
+    setDuration = newTimer(registry, "set", name);
+    setAllDuration = newTimer(registry, "setAll", name);
+    delDuration = newTimer(registry, "del", name);
+    pttlDuration = newTimer(registry, "pttl", name);
   }
 
   @Override
   public CompletionStage<V> get(K key) {
-    return redis.get(key);
+    return record("get", getDuration, () -> redis.get(key));
+  }
+
+  @Override
+  public CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys) {
+    // When connected to a cluster, lettuce splits the MGET by slot and issues one command per node.
+    @SuppressWarnings("unchecked") // Lettuce only reads the array so its component type is unused.
+    K[] keysArray = (K[]) keys.toArray();
+    return record("mget", mgetDuration, () -> redis.mget(keysArray));
   }
 
   @Override
   public CompletionStage<String> set(K key, V value, SetArgs setArgs) {
-    return redis.set(key, value, setArgs);
+    return record("set", setDuration, () -> redis.set(key, value, setArgs));
+  }
+
+  @Override
+  public CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs) {
+    // MSET does not support expiration so we issue individual SETs. Lettuce writes them to the
+    // connection without waiting for replies, so they are pipelined.
+    return record(
+        "setAll",
+        setAllDuration,
+        () ->
+            CompletableFuture.allOf(
+                values.entrySet().stream()
+                    .map(
+                        entry ->
+                            redis
+                                .set(entry.getKey(), entry.getValue(), setArgs)
+                                .toCompletableFuture())
+                    .toArray(CompletableFuture[]::new)));
   }
 
   @Override
   public CompletionStage<Long> del(K key) {
-    return redis.del(key);
+    return record("del", delDuration, () -> redis.del(key));
+  }
+
+  @Override
+  public CompletionStage<Long> pttl(K key) {
+    return record("pttl", pttlDuration, () -> redis.pttl(key));
+  }
+
+  private <T> CompletionStage<T> record(
+      String method, Timer duration, Supplier<? extends CompletionStage<T>> request) {
+    Span span = traceRequests ? newSpan(method) : null;
+    long startNanos = System.nanoTime();
+    final CompletionStage<T> result;
+    try {
+      result = request.get();
+    } catch (RuntimeException e) {
+      onComplete(span, e);
+      throw e;
+    } finally {
+      if (flushPerRequest) {
+        redis.flushCommands();
+      }
+    }
+    return result.whenComplete(
+        (unused, t) -> {
+          duration.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+          onComplete(span, t);
+        });
+  }
+
+  private void onComplete(@Nullable Span span, @Nullable Throwable t) {
+    if (t == null) {
+      success.increment();
+    } else {
+      failure.increment();
+    }
+    if (span != null) {
+      if (t != null) {
+        span.error(t);
+      }
+      span.finish();
+    }
+  }
+
+  private static Timer newTimer(MeterRegistry registry, String method, String name) {
+    return MoreMeters.newTimer(
+        registry,
+        DEFAULT_METER_ID_PREFIX.name("requestDuration"),
+        DEFAULT_METER_ID_PREFIX.tags("method", method, "cache", name));
   }
 
   @Nullable
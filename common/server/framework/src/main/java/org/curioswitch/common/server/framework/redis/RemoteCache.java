@@ -24,14 +24,29 @@
 
 package org.curioswitch.common.server.framework.redis;
 
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.SetArgs;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletionStage;
 
 interface RemoteCache<K, V> {
 
   CompletionStage<V> get(K key);
 
+  CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys);
+
   CompletionStage<String> set(K key, V value, SetArgs setArgs);
 
+  CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs);
+
   CompletionStage<Long> del(K key);
+
+  CompletionStage<Long> pttl(K key);
+
+  /**
+   * Invalidates any copy of {@code key} held locally, e.g., when another server has updated it.
+   * Only implementations keeping values locally need to override this.
+   */
+  default void invalidateLocal(K key) {}
 }
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.SetArgs;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link RemoteCache} which spreads requests over multiple connections, each represented by a
+ * {@link RemoteCache}. Requests are routed by the hash of the key, so requests for the same key
+ * always use the same connection and stay ordered. Lettuce registers each new connection with the
+ * next event loop of the Armeria worker group, so the connections are also spread over event
+ * loops.
+ */
+class ShardedRemoteCache<K, V> implements RemoteCache<K, V> {
+
+  private final List<RemoteCache<K, V>> shards;
+
+  ShardedRemoteCache(List<RemoteCache<K, V>> shards) {
+    checkArgument(!shards.isEmpty(), "shards must not be empty");
+    this.shards = ImmutableList.copyOf(shards);
+  }
+
+  @Override
+  public CompletionStage<V> get(K key) {
+    return shard(key).get(key);
+  }
+
+  @Override
+  public CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys) {
+    Map<Integer, List<K>> keysByShard = new HashMap<>();
+    for (K key : keys) {
+      keysByShard.computeIfAbsent(shardIndex(key), unused -> new ArrayList<>()).add(key);
+    }
+    if (keysByShard.size() == 1) {
+      return shard(keys.get(0)).mget(keys);
+    }
+    List<CompletableFuture<List<KeyValue<K, V>>>> results = new ArrayList<>();
+    keysByShard.forEach(
+        (shard, shardKeys) -> results.add(shards.get(shard).mget(shardKeys).toCompletableFuture()));
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            unused -> {
+              Map<K, KeyValue<K, V>> values = new HashMap<>();
+              for (CompletableFuture<List<KeyValue<K, V>>> result : results) {
+                for (KeyValue<K, V> value : result.join()) {
+                  values.put(value.getKey(), value);
+                }
+              }
+              // Return values in the order of the requested keys, like MGET.
+              ImmutableList.Builder<KeyValue<K, V>> ordered =
+                  ImmutableList.builderWithExpectedSize(keys.size());
+              for (K key : keys) {
+                ordered.add(values.getOrDefault(key, KeyValue.empty(key)));
+              }
+              return ordered.build();
+            });
+  }
+
+  @Override
+  public CompletionStage<String> set(K key, V value, SetArgs setArgs) {
+    return shard(key).set(key, value, setArgs);
+  }
+
+  @Override
+  public CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs) {
+    @SuppressWarnings("unchecked") // Generic array creation
+    Map<K, V>[] valuesByShard = new Map[shards.size()];
+    values.forEach(
+        (key, value) -> {
+          int shard = shardIndex(key);
+          if (valuesByShard[shard] == null) {
+            valuesByShard[shard] = new HashMap<>();
+          }
+          valuesByShard[shard].put(key, value);
+        });
+    List<CompletableFuture<Void>> results = new ArrayList<>();
+    for (int i = 0; i < valuesByShard.length; i++) {
+      if (valuesByShard[i] != null) {
+        results.add(shards.get(i).setAll(valuesByShard[i], setArgs).toCompletableFuture());
+      }
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]));
+  }
+
+  @Override
+  public CompletionStage<Long> del(K key) {
+    return shard(key).del(key);
+  }
+
+  @Override
+  public CompletionStage<Long> pttl(K key) {
+    return shard(key).pttl(key);
+  }
+
+  @Override
+  public void invalidateLocal(K key) {
+    shard(key).invalidateLocal(key);
+  }
+
+  private RemoteCache<K, V> shard(K key) {
+    return shards.get(shardIndex(key));
+  }
+
+  private int shardIndex(K key) {
+    // Spread the hash so keys with similar hash codes don't end up on the same connection.
+    int hash = key.hashCode() * 0x9E3779B9;
+    return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+  }
+}
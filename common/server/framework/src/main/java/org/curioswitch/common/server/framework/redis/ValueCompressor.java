@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.curioswitch.common.server.framework.redis.RedisConstants.DEFAULT_METER_ID_PREFIX;
+
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Compresses serialized values with LZ4. Compressed values start with a header byte which can never
+ * start a serialized protobuf message, field number 0 being invalid, followed by the uncompressed
+ * size, so compressed and uncompressed values can be stored in the same cache.
+ */
+final class ValueCompressor {
+
+  private static final byte LZ4_HEADER = 0;
+  private static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+  private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+  private static final LZ4FastDecompressor DECOMPRESSOR =
+      LZ4Factory.fastestInstance().fastDecompressor();
+
+  /** Returns whether {@code bytes} contains a value compressed by {@link ValueCompressor}. */
+  static boolean isCompressed(ByteBuffer bytes) {
+    return bytes.remaining() >= HEADER_SIZE && bytes.get(bytes.position()) == LZ4_HEADER;
+  }
+
+  /** Decompresses a value for which {@link #isCompressed(ByteBuffer)} returned {@code true}. */
+  static byte[] decompress(ByteBuffer bytes) {
+    int position = bytes.position();
+    byte[] decompressed = new byte[bytes.getInt(position + 1)];
+    DECOMPRESSOR.decompress(
+        bytes, position + HEADER_SIZE, ByteBuffer.wrap(decompressed), 0, decompressed.length);
+    return decompressed;
+  }
+
+  private final int threshold;
+  private final DistributionSummary compressionRatio;
+  private final Timer encodeDuration;
+  private final Timer decodeDuration;
+
+  ValueCompressor(int threshold, String cacheName, MeterRegistry registry) {
+    this.threshold = threshold;
+    compressionRatio =
+        MoreMeters.newDistributionSummary(
+            registry,
+            DEFAULT_METER_ID_PREFIX.name("compressionRatio"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+    encodeDuration =
+        MoreMeters.newTimer(
+            registry,
+            DEFAULT_METER_ID_PREFIX.name("valueEncodeDuration"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+    decodeDuration =
+        MoreMeters.newTimer(
+            registry,
+            DEFAULT_METER_ID_PREFIX.name("valueDecodeDuration"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+  }
+
+  /** Returns whether a value with the serialized {@code size} should be compressed. */
+  boolean shouldCompress(int size) {
+    return size >= threshold;
+  }
+
+  /** Returns the maximum size of the compressed value for a value with the serialized size. */
+  int maxCompressedSize(int size) {
+    return HEADER_SIZE + COMPRESSOR.maxCompressedLength(size);
+  }
+
+  /**
+   * Writes {@code source} compressed into {@code target}. Returns {@code false}, with nothing
+   * written, if compression would not reduce the size.
+   */
+  boolean compress(ByteBuf source, ByteBuf target) {
+    int size = source.readableBytes();
+    int maxSize = maxCompressedSize(size);
+    target.ensureWritable(maxSize);
+    if (target.nioBufferCount() != 1) {
+      // Composite buffers can't be written through a single NIO view, but lettuce never uses them.
+      return false;
+    }
+    int writerIndex = target.writerIndex();
+    ByteBuffer dest = target.nioBuffer(writerIndex, maxSize);
+    int compressedSize =
+        COMPRESSOR.compress(source.nioBuffer(), 0, size, dest, HEADER_SIZE, maxSize - HEADER_SIZE);
+    int encodedSize = HEADER_SIZE + compressedSize;
+    if (encodedSize >= size) {
+      return false;
+    }
+    dest.put(0, LZ4_HEADER);
+    dest.putInt(1, size);
+    target.writerIndex(writerIndex + encodedSize);
+    compressionRatio.record((double) size / encodedSize);
+    return true;
+  }
+
+  void recordEncode(long durationNanos) {
+    encodeDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void recordDecode(long durationNanos) {
+    decodeDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.curioswitch.common.server.framework.redis.RedisConstants.DEFAULT_METER_ID_PREFIX;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.linecorp.armeria.common.metric.MoreMeters;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RemoteCache} which buffers writes for a short window and writes them together as one
+ * pipelined batch. Multiple writes to the same key within the window are coalesced into a single
+ * write of the latest value. The future returned for a write completes once the batch containing
+ * it has been acknowledged by redis.
+ *
+ * <p>Reads are served by the delegate, except for keys with a buffered or in-flight write which
+ * are served from the buffer. Deletes remove any buffered write for the key and are issued on the
+ * same connection as writes while holding the same lock, so they are never reordered with them.
+ */
+class WriteCoalescingRemoteCache<K, V> implements RemoteCache<K, V> {
+
+  private final RemoteCache<K, V> delegate;
+  private final RemoteCache<K, V> writer;
+  private final int maxBatchSize;
+  private final Executor flushExecutor;
+
+  private final Counter coalescedWrites;
+  private final DistributionSummary flushSize;
+
+  private final Object lock = new Object();
+
+  // Guarded by lock
+  private Map<K, PendingWrite<K, V>> buffer = new LinkedHashMap<>();
+  // Writes which have been issued but not yet acknowledged by redis, guarded by lock.
+  private final Map<K, PendingWrite<K, V>> inFlight = new HashMap<>();
+  private boolean flushScheduled;
+
+  /**
+   * Creates a new {@link WriteCoalescingRemoteCache}. {@code writer} should use a connection
+   * dedicated to it which only flushes once per request, so each batch is written in one flush.
+   */
+  WriteCoalescingRemoteCache(
+      RemoteCache<K, V> delegate,
+      RemoteCache<K, V> writer,
+      Duration window,
+      int maxBatchSize,
+      String cacheName,
+      MeterRegistry registry) {
+    this.delegate = delegate;
+    this.writer = writer;
+    this.maxBatchSize = maxBatchSize;
+    flushExecutor = CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS);
+
+    registry.gauge(
+        DEFAULT_METER_ID_PREFIX.name("writeQueueDepth"),
+        DEFAULT_METER_ID_PREFIX.tags("cache", cacheName),
+        this,
+        WriteCoalescingRemoteCache::queueDepth);
+    coalescedWrites =
+        registry.counter(
+            DEFAULT_METER_ID_PREFIX.name("coalescedWrites"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+    flushSize =
+        MoreMeters.newDistributionSummary(
+            registry,
+            DEFAULT_METER_ID_PREFIX.name("writeFlushSize"),
+            DEFAULT_METER_ID_PREFIX.tags("cache", cacheName));
+  }
+
+  @Override
+  public CompletionStage<V> get(K key) {
+    PendingWrite<K, V> pending;
+    synchronized (lock) {
+      pending = pendingWrite(key);
+    }
+    if (pending != null) {
+      return CompletableFuture.completedFuture(pending.value);
+    }
+    return delegate.get(key);
+  }
+
+  @Override
+  public CompletionStage<List<KeyValue<K, V>>> mget(List<K> keys) {
+    Map<K, V> pendingValues = new HashMap<>();
+    synchronized (lock) {
+      for (K key : keys) {
+        PendingWrite<K, V> pending = pendingWrite(key);
+        if (pending != null) {
+          pendingValues.put(key, pending.value);
+        }
+      }
+    }
+    if (pendingValues.isEmpty()) {
+      return delegate.mget(keys);
+    }
+    return delegate
+        .mget(keys)
+        .thenApply(
+            values -> {
+              ImmutableList.Builder<KeyValue<K, V>> merged =
+                  ImmutableList.builderWithExpectedSize(values.size());
+              for (KeyValue<K, V> value : values) {
+                V pendingValue = pendingValues.get(value.getKey());
+                merged.add(
+                    pendingValue != null ? KeyValue.just(value.getKey(), pendingValue) : value);
+              }
+              return merged.build();
+            });
+  }
+
+  @Override
+  public CompletionStage<String> set(K key, V value, SetArgs setArgs) {
+    final CompletableFuture<String> result;
+    final boolean flushNow;
+    synchronized (lock) {
+      PendingWrite<K, V> existing = buffer.get(key);
+      if (existing != null) {
+        // The latest value supersedes the existing one, so both writers wait for it.
+        coalescedWrites.increment();
+        result = existing.result;
+      } else {
+        result = new CompletableFuture<>();
+      }
+      buffer.put(key, new PendingWrite<>(key, value, setArgs, result));
+      flushNow = buffer.size() >= maxBatchSize;
+      if (!flushNow && !flushScheduled) {
+        flushScheduled = true;
+        flushExecutor.execute(this::flush);
+      }
+    }
+    if (flushNow) {
+      flush();
+    }
+    return result;
+  }
+
+  @Override
+  public CompletionStage<Void> setAll(Map<K, V> values, SetArgs setArgs) {
+    return CompletableFuture.allOf(
+        values.entrySet().stream()
+            .map(entry -> set(entry.getKey(), entry.getValue(), setArgs).toCompletableFuture())
+            .toArray(CompletableFuture[]::new));
+  }
+
+  @Override
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  public CompletionStage<Long> del(K key) {
+    PendingWrite<K, V> removed;
+    CompletionStage<Long> result;
+    synchronized (lock) {
+      removed = buffer.remove(key);
+      inFlight.remove(key);
+      // Issued while holding the lock so it is sent after any in-flight write of the key.
+      result = writer.del(key);
+    }
+    if (removed != null) {
+      // The buffered write is superseded by the delete.
+      result.whenComplete((unused, t) -> complete(removed.result, t));
+    }
+    return result;
+  }
+
+  @Override
+  public CompletionStage<Long> pttl(K key) {
+    return delegate.pttl(key);
+  }
+
+  @Override
+  public void invalidateLocal(K key) {
+    delegate.invalidateLocal(key);
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored") // Intentional
+  private void flush() {
+    final Map<K, PendingWrite<K, V>> batch;
+    final List<Map.Entry<CompletionStage<Void>, List<PendingWrite<K, V>>>> written =
+        new ArrayList<>();
+    synchronized (lock) {
+      flushScheduled = false;
+      if (buffer.isEmpty()) {
+        return;
+      }
+      batch = buffer;
+      buffer = new LinkedHashMap<>();
+      inFlight.putAll(batch);
+
+      // Values in a single setAll share their expiration, so writes are grouped by SetArgs. There
+      // are only a few instances of SetArgs per cache.
+      Map<SetArgs, Map<K, V>> valuesBySetArgs = new HashMap<>();
+      Map<SetArgs, List<PendingWrite<K, V>>> writesBySetArgs = new HashMap<>();
+      batch.forEach(
+          (key, pending) -> {
+            valuesBySetArgs
+                .computeIfAbsent(pending.setArgs, unused -> new LinkedHashMap<>())
+                .put(key, pending.value);
+            writesBySetArgs
+                .computeIfAbsent(pending.setArgs, unused -> new ArrayList<>())
+                .add(pending);
+          });
+
+      // Writes are issued while holding the lock so a delete of a key in the batch can't be sent
+      // before them.
+      valuesBySetArgs.forEach(
+          (setArgs, values) -> {
+            List<PendingWrite<K, V>> writes = writesBySetArgs.get(setArgs);
+            try {
+              written.add(Maps.immutableEntry(writer.setAll(values, setArgs), writes));
+            } catch (RuntimeException e) {
+              written.add(Maps.immutableEntry(CompletableFuture.<Void>failedFuture(e), writes));
+            }
+          });
+    }
+    flushSize.record(batch.size());
+
+    for (Map.Entry<CompletionStage<Void>, List<PendingWrite<K, V>>> entry : written) {
+      List<PendingWrite<K, V>> writes = entry.getValue();
+      entry
+          .getKey()
+          .whenComplete(
+              (unused, t) -> {
+                synchronized (lock) {
+                  for (PendingWrite<K, V> write : writes) {
+                    inFlight.remove(write.key, write);
+                  }
+                }
+                writes.forEach(write -> complete(write.result, t));
+              });
+    }
+  }
+
+  @Nullable
+  private PendingWrite<K, V> pendingWrite(K key) {
+    PendingWrite<K, V> pending = buffer.get(key);
+    return pending != null ? pending : inFlight.get(key);
+  }
+
+  private int queueDepth() {
+    synchronized (lock) {
+      return buffer.size();
+    }
+  }
+
+  private static void complete(CompletableFuture<String> result, @Nullable Throwable t) {
+    if (t != null) {
+      result.completeExceptionally(t);
+    } else {
+      result.complete("OK");
+    }
+  }
+
+  private static final class PendingWrite<K, V> {
+    private final K key;
+    private final V value;
+    private final SetArgs setArgs;
+    private final CompletableFuture<String> result;
+
+    private PendingWrite(K key, V value, SetArgs setArgs, CompletableFuture<String> result) {
+      this.key = key;
+      this.value = value;
+      this.setArgs = setArgs;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BatchLoaderTest {
+
+  private final List<Set<Integer>> batches = new CopyOnWriteArrayList<>();
+
+  private ScheduledExecutorService scheduler;
+
+  @BeforeEach
+  void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterEach
+  void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  private Map<Integer, String> load(Set<Integer> keys) {
+    batches.add(keys);
+    ImmutableMap.Builder<Integer, String> values = ImmutableMap.builder();
+    for (int key : keys) {
+      if (key != 0) {
+        values.put(key, "value" + key);
+      }
+    }
+    return values.build();
+  }
+
+  private BatchLoader<Integer, String> newLoader(Duration window, int maxBatchSize) {
+    return new BatchLoader<>(
+        this::load, MoreExecutors.directExecutor(), scheduler, window, maxBatchSize);
+  }
+
+  @Test
+  void batchesWithinWindow() throws Exception {
+    var loader = newLoader(Duration.ofMillis(100), 100);
+
+    ListenableFuture<String> one = loader.load(1);
+    ListenableFuture<String> two = loader.load(2);
+    ListenableFuture<String> anotherOne = loader.load(1);
+    ListenableFuture<String> missing = loader.load(0);
+
+    assertThat(one.get(10, SECONDS)).isEqualTo("value1");
+    assertThat(two.get(10, SECONDS)).isEqualTo("value2");
+    assertThat(anotherOne.get(10, SECONDS)).isEqualTo("value1");
+    assertThat(missing.get(10, SECONDS)).isNull();
+    assertThat(batches).containsExactly(ImmutableSet.of(1, 2, 0));
+  }
+
+  @Test
+  void fullBatchDispatchedImmediately() throws Exception {
+    var loader = newLoader(Duration.ofHours(1), 2);
+
+    ListenableFuture<String> one = loader.load(1);
+    ListenableFuture<String> two = loader.load(2);
+    ListenableFuture<String> three = loader.load(3);
+
+    assertThat(one.get(10, SECONDS)).isEqualTo("value1");
+    assertThat(two.get(10, SECONDS)).isEqualTo("value2");
+    assertThat(three).isNotDone();
+    assertThat(batches).containsExactly(ImmutableSet.of(1, 2));
+  }
+
+  @Test
+  void noWindow() throws Exception {
+    var loader = newLoader(Duration.ZERO, 100);
+
+    assertThat(loader.load(1).get(10, SECONDS)).isEqualTo("value1");
+    assertThat(loader.load(2).get(10, SECONDS)).isEqualTo("value2");
+    assertThat(batches).containsExactly(ImmutableSet.of(1), ImmutableSet.of(2));
+  }
+
+  @Test
+  void failure() {
+    var loader =
+        new BatchLoader<Integer, String>(
+            keys -> {
+              throw new IllegalStateException("database down");
+            },
+            MoreExecutors.directExecutor(),
+            scheduler,
+            Duration.ofMillis(10),
+            100);
+
+    ListenableFuture<String> one = loader.load(1);
+    ListenableFuture<String> two = loader.load(2);
+
+    assertThatThrownBy(() -> one.get(10, SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> two.get(10, SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void nullValuesFailBatch() {
+    var loader =
+        new BatchLoader<Integer, String>(
+            keys -> null, MoreExecutors.directExecutor(), scheduler, Duration.ofMillis(10), 100);
+
+    ListenableFuture<String> one = loader.load(1);
+    ListenableFuture<String> two = loader.load(2);
+
+    assertThatThrownBy(() -> one.get(10, SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(NullPointerException.class);
+    assertThatThrownBy(() -> two.get(10, SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(NullPointerException.class);
+  }
+
+  @Test
+  void cancellingDoesNotAffectOtherCallers() throws Exception {
+    var loader = newLoader(Duration.ofMillis(100), 100);
+
+    ListenableFuture<String> one = loader.load(1);
+    ListenableFuture<String> anotherOne = loader.load(1);
+    one.cancel(false);
+
+    assertThat(anotherOne.get(10, SECONDS)).isEqualTo("value1");
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import io.grpc.Status;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.curioswitch.common.server.framework.armeria.CurrentRequestContextForwardingExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimitingExecutorServiceTest {
+
+  private MeterRegistry registry;
+  private ConcurrencyLimitingExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    registry = new SimpleMeterRegistry();
+    executor =
+        new ConcurrencyLimitingExecutorService(
+            Executors.newCachedThreadPool(), new GradientConcurrencyLimit(2, 2), registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void rejectsOverLimit() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> first =
+        executor.submit(
+            () -> {
+              release.await();
+              return null;
+            });
+    Future<?> second =
+        executor.submit(
+            () -> {
+              release.await();
+              return null;
+            });
+
+    Throwable rejected = catchThrowable(() -> executor.execute(() -> {}));
+
+    assertThat(rejected).isInstanceOf(RejectedExecutionException.class);
+    assertThat(Status.fromThrowable(rejected).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    assertThat(registry.get("database.rejectedTasks").counter().count()).isEqualTo(1);
+    assertThat(registry.get("database.inFlightTasks").gauge().value()).isEqualTo(2);
+    assertThat(registry.get("database.concurrencyLimit").gauge().value()).isEqualTo(2);
+
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    second.get(10, TimeUnit.SECONDS);
+
+    // The limit is released after the future completes.
+    while (registry.get("database.inFlightTasks").gauge().value() > 0) {
+      Thread.sleep(1);
+    }
+    assertThat(executor.submit(() -> "done").get(10, TimeUnit.SECONDS)).isEqualTo("done");
+  }
+
+  @Test
+  void submitOverLimitFailsFuture() throws Exception {
+    // Wrapped the same way as by DatabaseModule.
+    ListeningExecutorService listening =
+        new CurrentRequestContextForwardingExecutorService(executor);
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 2; i++) {
+      listening.submit(
+          () -> {
+            release.await();
+            return null;
+          });
+    }
+
+    ListenableFuture<String> rejected = listening.submit(() -> "rejected");
+
+    assertThat(rejected).isDone();
+    Throwable t = catchThrowable(() -> rejected.get(10, TimeUnit.SECONDS));
+    assertThat(t).isInstanceOf(ExecutionException.class);
+    assertThat(Status.fromThrowable(t).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    assertThat(registry.get("database.rejectedTasks").counter().count()).isEqualTo(1);
+    assertThat(registry.get("database.inFlightTasks").gauge().value()).isEqualTo(2);
+
+    release.countDown();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DatabaseExecutorServiceTest {
+
+  private MeterRegistry registry;
+  private DatabaseExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    registry = new SimpleMeterRegistry();
+    executor = new DatabaseExecutorService(Executors.newCachedThreadPool(), 2, registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void limitsConcurrency() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<Future<?>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      results.add(
+          executor.submit(
+              () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+                return null;
+              }));
+    }
+
+    while (running.get() < 2) {
+      Thread.sleep(1);
+    }
+    assertThat(registry.get("database.executor.activeTasks").gauge().value()).isEqualTo(2);
+    assertThat(registry.get("database.executor.queuedTasks").gauge().value()).isEqualTo(3);
+
+    release.countDown();
+    for (Future<?> result : results) {
+      result.get(10, TimeUnit.SECONDS);
+    }
+    assertThat(maxRunning.get()).isEqualTo(2);
+    assertThat(registry.get("database.executor.queueDuration").timer().count()).isEqualTo(5);
+    assertThat(registry.get("database.executor.activeTasks").gauge().value()).isZero();
+  }
+
+  @Test
+  void shutdownRunsQueuedTasks() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger completed = new AtomicInteger();
+    for (int i = 0; i < 4; i++) {
+      executor.execute(
+          () -> {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            completed.incrementAndGet();
+          });
+    }
+
+    executor.shutdown();
+    assertThat(executor.isShutdown()).isTrue();
+    release.countDown();
+
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(completed.get()).isEqualTo(4);
+  }
+
+  @Test
+  void shutdownNowReturnsQueuedTasks() {
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 4; i++) {
+      executor.execute(
+          () -> {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+    }
+
+    assertThat(executor.shutdownNow()).hasSize(2);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DatabaseWarmUpTest {
+
+  private static final ImmutableList<String> QUERIES =
+      ImmutableList.of("select * from place", "select * from landmark");
+
+  private ExecutorService executor;
+  private HikariDataSource dataSource;
+  private Connection connection;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    executor = Executors.newSingleThreadExecutor();
+    dataSource = mock(HikariDataSource.class);
+    connection = mock(Connection.class);
+    PreparedStatement statement = mock(PreparedStatement.class);
+    lenient().when(connection.prepareStatement(anyString())).thenReturn(statement);
+    when(dataSource.getMaximumPoolSize()).thenReturn(10);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void preparesQueriesOnMinimumIdleConnections() throws Exception {
+    when(dataSource.getMinimumIdle()).thenReturn(3);
+    when(dataSource.getConnection()).thenReturn(connection);
+    DatabaseWarmUp warmUp = new DatabaseWarmUp(ImmutableList.of(dataSource), QUERIES);
+
+    assertThat(warmUp.isHealthy()).isFalse();
+    warmUp.start(executor, Duration.ofSeconds(10)).get(10, TimeUnit.SECONDS);
+
+    assertThat(warmUp.isHealthy()).isTrue();
+    verify(dataSource, times(3)).getConnection();
+    verify(connection, times(3)).prepareStatement("select * from place");
+    verify(connection, times(3)).prepareStatement("select * from landmark");
+    verify(connection, times(3)).close();
+  }
+
+  @Test
+  void leavesOneConnectionForOthers() throws Exception {
+    when(dataSource.getMinimumIdle()).thenReturn(10);
+    when(dataSource.getConnection()).thenReturn(connection);
+    DatabaseWarmUp warmUp = new DatabaseWarmUp(ImmutableList.of(dataSource), QUERIES);
+
+    warmUp.start(executor, Duration.ofSeconds(10)).get(10, TimeUnit.SECONDS);
+
+    verify(dataSource, times(9)).getConnection();
+  }
+
+  @Test
+  void stopsAfterTimeout() throws Exception {
+    when(dataSource.getMinimumIdle()).thenReturn(5);
+    when(dataSource.getConnection())
+        .thenAnswer(
+            unused -> {
+              Thread.sleep(200);
+              return connection;
+            });
+    DatabaseWarmUp warmUp = new DatabaseWarmUp(ImmutableList.of(dataSource), QUERIES);
+
+    assertThat(warmUp.start(executor, Duration.ofMillis(50)))
+        .failsWithin(Duration.ofSeconds(10))
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(TimeoutException.class);
+    assertThat(warmUp.isHealthy()).isTrue();
+
+    // The running warm-up stops at the deadline instead of holding connections.
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    verify(dataSource, times(1)).getConnection();
+    verify(connection, times(0)).prepareStatement(anyString());
+    verify(connection).close();
+  }
+
+  @Test
+  void errorReportsHealthyAndReleasesConnections() throws Exception {
+    when(dataSource.getMinimumIdle()).thenReturn(5);
+    when(dataSource.getConnection())
+        .thenReturn(connection)
+        .thenThrow(new SQLException("Too many connections"));
+    DatabaseWarmUp warmUp = new DatabaseWarmUp(ImmutableList.of(dataSource), QUERIES);
+
+    assertThat(warmUp.start(executor, Duration.ofSeconds(10)))
+        .failsWithin(Duration.ofSeconds(10))
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(IllegalStateException.class);
+
+    assertThat(warmUp.isHealthy()).isTrue();
+    verify(connection).close();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.function.Function;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.RecordMapper;
+import org.jooq.RecordType;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultRecordMapperProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GeneratedRecordMapperProviderTest {
+
+  private static final Field<Long> ID = field(name("id"), Long.class);
+  private static final Field<String> GOOGLE_PLACE_ID =
+      field(name("google_place_id"), String.class);
+
+  public static class Place {
+    private final Long id;
+    private final String googlePlaceId;
+
+    public Place(Long id, String googlePlaceId) {
+      this.id = id;
+      this.googlePlaceId = googlePlaceId;
+    }
+  }
+
+  public static class Landmark {
+    public Long id;
+  }
+
+  private DSLContext db;
+
+  @BeforeEach
+  void setUp() {
+    // What the processor would generate for Place.
+    Function<RecordType<?>, RecordMapper<Record, ?>> placeMapper =
+        recordType -> {
+          int id = GeneratedRecordMappers.indexOf(recordType, "id");
+          int googlePlaceId = GeneratedRecordMappers.indexOf(recordType, "google_place_id");
+          return record ->
+              new Place(
+                  GeneratedRecordMappers.get(record, id, Long.class),
+                  GeneratedRecordMappers.get(record, googlePlaceId, String.class));
+        };
+    db =
+        DSL.using(
+            new DefaultConfiguration()
+                .set(SQLDialect.MYSQL)
+                .set(
+                    new GeneratedRecordMapperProvider(
+                        ImmutableMap.of(Place.class, placeMapper),
+                        new DefaultRecordMapperProvider())));
+  }
+
+  @Test
+  void generatedMapper() {
+    Place place = db.newRecord(ID, GOOGLE_PLACE_ID).values(1L, "cafe").into(Place.class);
+
+    assertThat(place.id).isEqualTo(1L);
+    assertThat(place.googlePlaceId).isEqualTo("cafe");
+  }
+
+  @Test
+  void generatedMapper_result() {
+    Result<Record2<String, Long>> result = db.newResult(GOOGLE_PLACE_ID, ID);
+    result.add(db.newRecord(GOOGLE_PLACE_ID, ID).values("cafe", 1L));
+    result.add(db.newRecord(GOOGLE_PLACE_ID, ID).values("bar", 2L));
+
+    List<Place> places = result.into(Place.class);
+
+    assertThat(places).extracting(place -> place.id).containsExactly(1L, 2L);
+    assertThat(places).extracting(place -> place.googlePlaceId).containsExactly("cafe", "bar");
+  }
+
+  @Test
+  void generatedMapper_missingField() {
+    Place place = db.newRecord(ID).values(1L).into(Place.class);
+
+    assertThat(place.id).isEqualTo(1L);
+    assertThat(place.googlePlaceId).isNull();
+  }
+
+  @Test
+  void fallback() {
+    Landmark landmark = db.newRecord(ID).values(2L).into(Landmark.class);
+
+    assertThat(landmark.id).isEqualTo(2L);
+  }
+}
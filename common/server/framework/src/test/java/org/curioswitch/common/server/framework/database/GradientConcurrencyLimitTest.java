@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class GradientConcurrencyLimitTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  void growsWhileLatencyStable() {
+    GradientConcurrencyLimit limit = new GradientConcurrencyLimit(10, 100);
+
+    for (int i = 0; i < 200; i++) {
+      limit.onSample(FAST, limit.limit());
+    }
+
+    assertThat(limit.limit()).isEqualTo(100);
+  }
+
+  @Test
+  void doesNotGrowWhenUnused() {
+    GradientConcurrencyLimit limit = new GradientConcurrencyLimit(10, 100);
+
+    for (int i = 0; i < 200; i++) {
+      limit.onSample(FAST, 1);
+    }
+
+    assertThat(limit.limit()).isEqualTo(10);
+  }
+
+  @Test
+  void shrinksWhenLatencyRises() {
+    GradientConcurrencyLimit limit = new GradientConcurrencyLimit(10, 100);
+    for (int i = 0; i < 200; i++) {
+      limit.onSample(FAST, limit.limit());
+    }
+
+    for (int i = 0; i < 50; i++) {
+      limit.onSample(SLOW, limit.limit());
+    }
+
+    assertThat(limit.limit()).isLessThan(50).isGreaterThanOrEqualTo(10);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+
+class QueryMetricsListenerTest {
+
+  private static final Table<Record> PLACE = table(name("place"));
+  private static final Field<Integer> ID = field(name("id"), Integer.class);
+
+  @Test
+  void normalizesLiterals() {
+    assertThat(
+            QueryMetricsListener.normalize(
+                "select * from `place` where `name` = 'it''s' and `id` = 10 and `score` > 1.5"))
+        .isEqualTo("select * from `place` where `name` = ? and `id` = ? and `score` > ?");
+  }
+
+  @Test
+  void normalizesLists() {
+    assertThat(QueryMetricsListener.normalize("select * from `place` where `id` in (?, ?, ?)"))
+        .isEqualTo(QueryMetricsListener.normalize("select * from `place` where `id` in (?, ?)"));
+    assertThat(
+            QueryMetricsListener.normalize(
+                "select * from `place` where ((`s2_cell` >= ? and `s2_cell` <= ?) or "
+                    + "(`s2_cell` >= ? and `s2_cell` <= ?) or "
+                    + "(`s2_cell` >= ? and `s2_cell` <= ?))"))
+        .isEqualTo(
+            QueryMetricsListener.normalize(
+                "select * from `place` where ((`s2_cell` >= ? and `s2_cell` <= ?) or "
+                    + "(`s2_cell` >= ? and `s2_cell` <= ?))"));
+  }
+
+  @Test
+  void recordsMetrics() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    DSLContext db =
+        DSL.using(
+            new DefaultConfiguration()
+                .set(SQLDialect.MYSQL)
+                .set(
+                    new MockConnection(
+                        ctx -> {
+                          Result<Record1<Integer>> result =
+                              DSL.using(SQLDialect.MYSQL).newResult(ID);
+                          result.add(DSL.using(SQLDialect.MYSQL).newRecord(ID).values(1));
+                          result.add(DSL.using(SQLDialect.MYSQL).newRecord(ID).values(2));
+                          return new MockResult[] {new MockResult(2, result)};
+                        }))
+                .set(new QueryMetricsListener(registry, true, Duration.ZERO, 1.0)));
+
+    db.selectFrom(PLACE).where(ID.eq(1)).fetch();
+
+    assertThat(
+            registry
+                .get("database.queryDuration")
+                .tag("type", "read")
+                .tag("result", "success")
+                .timer()
+                .count())
+        .isEqualTo(1);
+    assertThat(registry.get("database.rowsFetched").summary().totalAmount()).isEqualTo(2);
+  }
+}
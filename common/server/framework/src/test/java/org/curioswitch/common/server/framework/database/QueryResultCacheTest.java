@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueryResultCacheTest {
+
+  private static final Table<Record> PLACE = table(name("place"));
+  private static final Table<Record> LANDMARK = table(name("landmark"));
+  private static final Field<Integer> ID = field(name("id"), Integer.class);
+
+  private final AtomicInteger numReads = new AtomicInteger();
+
+  private QueryResultCache cache;
+  private DSLContext db;
+
+  @BeforeEach
+  void setUp() {
+    cache = new QueryResultCache(CaffeineSpec.parse("maximumSize=100"), new SimpleMeterRegistry());
+    db =
+        DSL.using(
+            new DefaultConfiguration()
+                .set(SQLDialect.MYSQL)
+                .set(
+                    new MockConnection(
+                        ctx -> {
+                          if (ctx.sql().startsWith("select")) {
+                            numReads.incrementAndGet();
+                            Result<Record1<Integer>> result =
+                                DSL.using(SQLDialect.MYSQL).newResult(ID);
+                            result.add(DSL.using(SQLDialect.MYSQL).newRecord(ID).values(1));
+                            return new MockResult[] {new MockResult(1, result)};
+                          }
+                          return new MockResult[] {new MockResult(1)};
+                        }))
+                .set(cache.invalidationListener())
+                .set(cache.transactionListener()));
+  }
+
+  @Test
+  void cachesResults() {
+    Result<Record> first = cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+    Result<Record> second = cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(second).isSameAs(first);
+    assertThat(numReads).hasValue(1);
+  }
+
+  @Test
+  void keyedByBindValues() {
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(2)));
+
+    assertThat(numReads).hasValue(2);
+  }
+
+  @Test
+  void writeInvalidatesReferencedTable() {
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    db.update(PLACE).set(ID, 2).where(ID.eq(1)).execute();
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(numReads).hasValue(2);
+  }
+
+  @Test
+  void writeToOtherTableDoesNotInvalidate() {
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    db.insertInto(LANDMARK).set(ID, 1).execute();
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(numReads).hasValue(1);
+  }
+
+  @Test
+  void plainSqlWriteInvalidatesAll() {
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    db.execute("delete from place");
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(numReads).hasValue(2);
+  }
+
+  @Test
+  void transactionWriteInvalidatesOnCommit() {
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    db.transactionResult(
+        tx -> {
+          int updated = DSL.using(tx).update(PLACE).set(ID, 2).where(ID.eq(1)).execute();
+          // A concurrent read before commit caches the previous rows.
+          cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+          return updated;
+        });
+    cache.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(numReads).hasValue(3);
+  }
+
+  @Test
+  void disabled() {
+    QueryResultCache disabled = QueryResultCache.disabled();
+
+    disabled.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+    disabled.fetch(db.selectFrom(PLACE).where(ID.eq(1)));
+
+    assertThat(numReads).hasValue(2);
+  }
+}
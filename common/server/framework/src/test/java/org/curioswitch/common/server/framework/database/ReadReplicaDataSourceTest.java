@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+class ReadReplicaDataSourceTest {
+
+  private static final Duration MAX_LAG = Duration.ofSeconds(10);
+  private static final Duration LAG_CHECK_INTERVAL = Duration.ofMillis(10);
+
+  @Mock private DataSource primary;
+  @Mock private Connection primaryConnection;
+  @Mock private HikariDataSource replica;
+  @Mock private Connection replicaConnection;
+  @Mock private Statement statement;
+  @Mock private ResultSet slaveStatus;
+
+  private MeterRegistry registry;
+  private ReadReplicaDataSource dataSource;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    registry = new SimpleMeterRegistry();
+    // Not used by tests where the first lag check finishes before the first connection.
+    lenient().when(primary.getConnection()).thenReturn(primaryConnection);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  @Test
+  void usesReplicaWithinMaxLag() throws Exception {
+    stubLagSeconds(1);
+    when(replica.getConnection()).thenReturn(replicaConnection);
+    dataSource = newDataSource(ImmutableList.of(replica));
+
+    await().untilAsserted(() -> assertThat(dataSource.getConnection()).isSameAs(replicaConnection));
+    assertThat(registry.get("database.replicationLag").tag("replica", "replica-0").gauge().value())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void usesPrimaryOverMaxLag() throws Exception {
+    stubLagSeconds(30);
+    when(replica.getConnection()).thenReturn(replicaConnection);
+    dataSource = newDataSource(ImmutableList.of(replica));
+
+    await()
+        .untilAsserted(
+            () ->
+                assertThat(registry.get("database.replicationLag").gauge().value())
+                    .isEqualTo(30));
+    assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+  }
+
+  @Test
+  void usesPrimaryWhenReplicaUnreachable() throws Exception {
+    stubLagSeconds(1);
+    AtomicBoolean reachable = new AtomicBoolean(true);
+    when(replica.getConnection())
+        .thenAnswer(
+            unused -> {
+              if (!reachable.get()) {
+                throw new SQLException("Connection refused");
+              }
+              return replicaConnection;
+            });
+    dataSource = newDataSource(ImmutableList.of(replica));
+    await().untilAsserted(() -> assertThat(dataSource.getConnection()).isSameAs(replicaConnection));
+
+    reachable.set(false);
+
+    // Connections may fail until the next check notices the replica is unreachable.
+    await()
+        .ignoreExceptions()
+        .untilAsserted(() -> assertThat(dataSource.getConnection()).isSameAs(primaryConnection));
+    assertThat(registry.get("database.replicationLag").gauge().value()).isNaN();
+  }
+
+  @Test
+  void usesPrimaryWithoutReplicas() throws Exception {
+    dataSource = newDataSource(ImmutableList.of());
+
+    assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+    assertThat(dataSource.replicaDataSources()).isEmpty();
+  }
+
+  private ReadReplicaDataSource newDataSource(ImmutableList<HikariDataSource> replicas) {
+    return new ReadReplicaDataSource(primary, replicas, MAX_LAG, LAG_CHECK_INTERVAL, registry);
+  }
+
+  private void stubLagSeconds(long lagSeconds) throws SQLException {
+    when(replica.getPoolName()).thenReturn("replica-0");
+    when(replicaConnection.createStatement()).thenReturn(statement);
+    when(statement.executeQuery("SHOW SLAVE STATUS")).thenReturn(slaveStatus);
+    when(slaveStatus.next()).thenReturn(true);
+    when(slaveStatus.getLong("Seconds_Behind_Master")).thenReturn(lagSeconds);
+    when(slaveStatus.wasNull()).thenReturn(false);
+  }
+}
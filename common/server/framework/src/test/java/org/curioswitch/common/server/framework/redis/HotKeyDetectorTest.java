@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class HotKeyDetectorTest {
+
+  @Test
+  void detectsHotKey() {
+    HotKeyDetector<String> detector = new HotKeyDetector<>(10, 2, unused -> {});
+
+    for (int i = 0; i < 9; i++) {
+      assertThat(detector.recordAccess("hot")).isFalse();
+    }
+    assertThat(detector.recordAccess("hot")).isTrue();
+    assertThat(detector.recordAccess("cold")).isFalse();
+  }
+
+  @Test
+  void hotterKeyReplacesColdest() {
+    HotKeyDetector<String> detector = new HotKeyDetector<>(2, 1, unused -> {});
+
+    detector.recordAccess("a");
+    assertThat(detector.recordAccess("a")).isTrue();
+    detector.recordAccess("b");
+    // Not hotter than the existing hot key.
+    assertThat(detector.recordAccess("b")).isFalse();
+    assertThat(detector.recordAccess("b")).isTrue();
+    assertThat(detector.recordAccess("a")).isFalse();
+  }
+
+  @Test
+  void reportsHotKeysEachPeriod() {
+    AtomicReference<Map<String, Integer>> reported = new AtomicReference<>();
+    HotKeyDetector<String> detector = new HotKeyDetector<>(100, 2, reported::set);
+
+    for (int i = 0; reported.get() == null; i++) {
+      detector.recordAccess(i % 2 == 0 ? "hot" : "key" + i);
+    }
+
+    assertThat(reported.get()).containsOnlyKeys("hot");
+  }
+
+  @Test
+  void concurrentAccessesKeepMaxHotKeys() throws Exception {
+    List<Map<String, Integer>> reported = new CopyOnWriteArrayList<>();
+    HotKeyDetector<String> detector = new HotKeyDetector<>(1, 4, reported::add);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        int offset = thread;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 20000; i++) {
+                    detector.recordAccess("key" + (i * 7 + offset) % 64);
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(reported)
+        .isNotEmpty()
+        .allSatisfy(hotKeys -> assertThat(hotKeys).hasSizeLessThanOrEqualTo(4));
+  }
+}
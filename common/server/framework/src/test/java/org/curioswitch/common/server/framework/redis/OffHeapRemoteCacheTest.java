@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.StringValue;
+import io.lettuce.core.KeyValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+class OffHeapRemoteCacheTest {
+
+  private static final StringValue KEY1 = StringValue.newBuilder().setValue("key1").build();
+  private static final StringValue KEY2 = StringValue.newBuilder().setValue("key2").build();
+
+  private static final Int32Value VALUE1 = Int32Value.newBuilder().setValue(1).build();
+  private static final Int32Value VALUE2 = Int32Value.newBuilder().setValue(2).build();
+
+  @Mock private RemoteCache<StringValue, Int32Value> delegate;
+
+  private SimpleMeterRegistry meterRegistry;
+  private OffHeapRemoteCache<StringValue, Int32Value> cache;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    cache =
+        new OffHeapRemoteCache<>(
+            delegate,
+            new ProtobufRedisCodec<>(
+                new byte[0], StringValue.getDefaultInstance(), Int32Value.getDefaultInstance()),
+            ProtobufRedisCodec.absentValue(Int32Value.getDefaultInstance()),
+            1024 * 1024,
+            Duration.ofMinutes(1),
+            "test",
+            meterRegistry);
+    lenient().when(delegate.pttl(any())).thenReturn(completedFuture(-1L));
+  }
+
+  @Test
+  void servesFromTier() {
+    when(delegate.get(KEY1)).thenReturn(completedFuture(VALUE1));
+
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+
+    verify(delegate, times(1)).get(KEY1);
+    assertThat(meterRegistry.get("redis.offHeapGets").tag("result", "hit").counter().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.get("redis.offHeapBytes").gauge().value()).isPositive();
+  }
+
+  @Test
+  void mgetMergesTierAndRemote() {
+    when(delegate.get(KEY1)).thenReturn(completedFuture(VALUE1));
+    when(delegate.mget(ImmutableList.of(KEY2)))
+        .thenReturn(completedFuture(ImmutableList.of(KeyValue.just(KEY2, VALUE2))));
+
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+
+    assertThat(cache.mget(ImmutableList.of(KEY2, KEY1)).toCompletableFuture())
+        .isCompletedWithValue(
+            ImmutableList.of(KeyValue.just(KEY2, VALUE2), KeyValue.just(KEY1, VALUE1)));
+  }
+
+  @Test
+  void copyExpiresWithRemote() throws Exception {
+    when(delegate.get(KEY1)).thenReturn(completedFuture(VALUE1));
+    when(delegate.pttl(KEY1)).thenReturn(completedFuture(50L));
+
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+    verify(delegate, times(1)).get(KEY1);
+
+    Thread.sleep(100);
+
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+    verify(delegate, times(2)).get(KEY1);
+  }
+
+  @Test
+  void expiredRemoteNotCopied() {
+    when(delegate.mget(ImmutableList.of(KEY1)))
+        .thenReturn(completedFuture(ImmutableList.of(KeyValue.just(KEY1, VALUE1))));
+    // Expired between the MGET and PTTL.
+    when(delegate.pttl(KEY1)).thenReturn(completedFuture(-2L));
+    when(delegate.get(KEY1)).thenReturn(completedFuture(VALUE2));
+
+    assertThat(cache.mget(ImmutableList.of(KEY1)).toCompletableFuture())
+        .isCompletedWithValue(ImmutableList.of(KeyValue.just(KEY1, VALUE1)));
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE2);
+  }
+
+  @Test
+  void invalidateLocal() {
+    when(delegate.get(KEY1))
+        .thenReturn(completedFuture(VALUE1))
+        .thenReturn(completedFuture(VALUE2));
+
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE1);
+    cache.invalidateLocal(KEY1);
+    assertThat(cache.get(KEY1).toCompletableFuture()).isCompletedWithValue(VALUE2);
+  }
+}
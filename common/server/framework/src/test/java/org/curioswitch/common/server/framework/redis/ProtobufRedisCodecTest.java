@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.StringValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ProtobufRedisCodecTest {
+
+  private static final StringValue KEY = StringValue.newBuilder().setValue("key").build();
+  private static final Int32Value VALUE = Int32Value.newBuilder().setValue(100).build();
+
+  private final ProtobufRedisCodec<StringValue, Int32Value> codec =
+      new ProtobufRedisCodec<>(
+          "cache:".getBytes(StandardCharsets.UTF_8),
+          StringValue.getDefaultInstance(),
+          Int32Value.getDefaultInstance());
+
+  @Test
+  void byteBufRoundTrip() {
+    ByteBuf buf = Unpooled.buffer();
+    // Lettuce writes the command header before the key when the estimate is exact.
+    buf.writeByte('$');
+
+    codec.encodeKey(KEY, buf);
+    assertThat(buf.readableBytes()).isEqualTo(1 + codec.estimateSize(KEY));
+    buf.skipBytes(1);
+    assertThat(codec.decodeKey(buf.nioBuffer())).isEqualTo(KEY);
+
+    buf.clear();
+    codec.encodeValue(VALUE, buf);
+    assertThat(buf.readableBytes()).isEqualTo(codec.estimateSize(VALUE));
+    assertThat(codec.decodeValue(buf.nioBuffer())).isEqualTo(VALUE);
+  }
+
+  @Test
+  void byteBufferRoundTrip() {
+    assertThat(codec.decodeKey(codec.encodeKey(KEY))).isEqualTo(KEY);
+    assertThat(codec.decodeValue(codec.encodeValue(VALUE))).isEqualTo(VALUE);
+  }
+
+  @Test
+  void estimateExactOnlyForDifferentTypes() {
+    assertThat(codec.isEstimateExact()).isTrue();
+    assertThat(
+            new ProtobufRedisCodec<>(
+                    "cache:".getBytes(StandardCharsets.UTF_8),
+                    StringValue.getDefaultInstance(),
+                    StringValue.getDefaultInstance())
+                .isEstimateExact())
+        .isFalse();
+  }
+
+  @Test
+  void compression() {
+    ProtobufRedisCodec<StringValue, StringValue> compressing =
+        new ProtobufRedisCodec<>(
+            "cache:".getBytes(StandardCharsets.UTF_8),
+            StringValue.getDefaultInstance(),
+            StringValue.getDefaultInstance(),
+            new ValueCompressor(100, "cache", new SimpleMeterRegistry()),
+            null);
+    StringValue small = StringValue.newBuilder().setValue("small").build();
+    StringValue large = StringValue.newBuilder().setValue(Strings.repeat("large", 100)).build();
+
+    ByteBuf buf = Unpooled.buffer();
+    compressing.encodeValue(large, buf);
+    assertThat(buf.readableBytes()).isLessThan(large.getSerializedSize());
+    assertThat(compressing.decodeValue(buf.nioBuffer())).isEqualTo(large);
+    // Compressed values are readable without compression enabled.
+    assertThat(
+            new ProtobufRedisCodec<>(
+                    "cache:".getBytes(StandardCharsets.UTF_8),
+                    StringValue.getDefaultInstance(),
+                    StringValue.getDefaultInstance())
+                .decodeValue(buf.nioBuffer()))
+        .isEqualTo(large);
+
+    buf.clear();
+    compressing.encodeValue(small, buf);
+    assertThat(buf.readableBytes()).isEqualTo(small.getSerializedSize());
+    assertThat(compressing.decodeValue(buf.nioBuffer())).isEqualTo(small);
+  }
+
+  @Test
+  void absentValue() {
+    Int32Value absent = ProtobufRedisCodec.absentValue(Int32Value.getDefaultInstance());
+    assertThat(absent).isNotSameAs(Int32Value.getDefaultInstance());
+    assertThat(ProtobufRedisCodec.absentValue(VALUE)).isSameAs(absent);
+
+    ByteBuf buf = Unpooled.buffer();
+    codec.encodeValue(absent, buf);
+    assertThat(buf.readableBytes()).isEqualTo(codec.estimateSize(absent));
+    assertThat(codec.decodeValue(buf.nioBuffer())).isSameAs(absent);
+    assertThat(codec.decodeValue(codec.encodeValue(absent))).isSameAs(absent);
+
+    // The default instance is a real value.
+    buf.clear();
+    codec.encodeValue(Int32Value.getDefaultInstance(), buf);
+    assertThat(codec.decodeValue(buf.nioBuffer())).isNotSameAs(absent);
+  }
+}
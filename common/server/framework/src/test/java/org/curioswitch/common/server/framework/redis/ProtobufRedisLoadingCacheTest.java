@@ -26,14 +26,32 @@ package org.curioswitch.common.server.framework.redis;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.curioswitch.common.testing.assertj.CurioAssertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.protobuf.Int32Value;
 import com.google.protobuf.StringValue;
+import io.lettuce.core.KeyValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 class ProtobufRedisLoadingCacheTest {
@@ -41,20 +59,32 @@ class ProtobufRedisLoadingCacheTest {
   private static final Duration TTL = Duration.ofMinutes(10);
 
   private static final StringValue KEY1 = StringValue.newBuilder().setValue("key1").build();
+  private static final StringValue KEY2 = StringValue.newBuilder().setValue("key2").build();
+  private static final StringValue KEY3 = StringValue.newBuilder().setValue("key3").build();
+
+  private static final Int32Value VALUE1 = Int32Value.newBuilder().setValue(1).build();
+  private static final Int32Value VALUE2 = Int32Value.newBuilder().setValue(2).build();
 
   @Mock private RemoteCache<StringValue, Int32Value> remoteCache;
+  @Mock private InvalidationChannel<StringValue> invalidationChannel;
 
+  private SimpleMeterRegistry meterRegistry;
+  private CacheMetrics metrics;
   private ProtobufRedisLoadingCache<StringValue, Int32Value> cache;
 
   @BeforeEach
   void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    metrics = new CacheMetrics("test", meterRegistry);
     cache =
         new ProtobufRedisLoadingCache<>(
             StringValue.getDefaultInstance(),
             Int32Value.getDefaultInstance(),
-            TTL,
+            new RedisCacheOptions.Builder().redisTtl(TTL).build(),
+            metrics,
+            remoteCache,
             null,
-            remoteCache);
+            null);
   }
 
   @SuppressWarnings("ClassCanBeStatic")
@@ -74,4 +104,375 @@ class ProtobufRedisLoadingCacheTest {
       assertThat(cache.deleteFromRedis(KEY1)).completesWithValue(false);
     }
   }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class GetAll {
+    @Test
+    void loadsOnlyMissing() {
+      when(remoteCache.mget(anyList()))
+          .thenReturn(
+              completedFuture(
+                  ImmutableList.of(
+                      KeyValue.just(KEY1, VALUE1), KeyValue.empty(KEY2), KeyValue.empty(KEY3))));
+
+      assertThat(
+              cache.getAll(
+                  ImmutableList.of(KEY1, KEY2, KEY3),
+                  keys -> {
+                    assertThat(keys).containsExactlyInAnyOrder(KEY2, KEY3);
+                    return Futures.immediateFuture(ImmutableMap.of(KEY2, VALUE2));
+                  }))
+          .completesWithValue(ImmutableMap.of(KEY1, VALUE1, KEY2, VALUE2));
+
+      verify(remoteCache, timeout(1000)).setAll(eq(ImmutableMap.of(KEY2, VALUE2)), any());
+    }
+
+    @Test
+    void recordsMetrics() {
+      when(remoteCache.mget(anyList()))
+          .thenReturn(
+              completedFuture(
+                  ImmutableList.of(
+                      KeyValue.just(KEY1, VALUE1), KeyValue.empty(KEY2), KeyValue.empty(KEY3))));
+
+      assertThat(
+              cache.getAll(
+                  ImmutableList.of(KEY1, KEY2, KEY3),
+                  keys -> Futures.immediateFuture(ImmutableMap.of(KEY2, VALUE2))))
+          .completesWithValue(ImmutableMap.of(KEY1, VALUE1, KEY2, VALUE2));
+
+      assertThat(meterRegistry.get("redis.remoteGets").tag("result", "hit").counter().count())
+          .isEqualTo(1);
+      assertThat(meterRegistry.get("redis.remoteGets").tag("result", "miss").counter().count())
+          .isEqualTo(2);
+      assertThat(
+              meterRegistry.get("redis.loadDuration").tag("result", "success").timer().count())
+          .isEqualTo(1);
+    }
+
+    @Test
+    void allCachedRemotely() {
+      when(remoteCache.mget(anyList()))
+          .thenReturn(
+              completedFuture(
+                  ImmutableList.of(KeyValue.just(KEY1, VALUE1), KeyValue.just(KEY2, VALUE2))));
+
+      assertThat(
+              cache.getAll(
+                  ImmutableSet.of(KEY1, KEY2),
+                  keys -> {
+                    throw new AssertionError("Unexpected load of " + keys);
+                  }))
+          .completesWithValue(ImmutableMap.of(KEY1, VALUE1, KEY2, VALUE2));
+    }
+  }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class RefreshAfterWrite {
+
+    @BeforeEach
+    void setUp() {
+      cache =
+          new ProtobufRedisLoadingCache<>(
+              StringValue.getDefaultInstance(),
+              Int32Value.getDefaultInstance(),
+              new RedisCacheOptions.Builder()
+                  .redisTtl(TTL)
+                  .refreshAfterWrite(Duration.ofMinutes(1))
+                  .build(),
+              metrics,
+              remoteCache,
+              null,
+              null);
+    }
+
+    @Test
+    void staleServedAndRefreshed() {
+      when(remoteCache.get(KEY1)).thenReturn(completedFuture(VALUE1));
+      when(remoteCache.pttl(KEY1)).thenReturn(completedFuture(TTL.minusMinutes(2).toMillis()));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE1);
+
+      verify(remoteCache, timeout(1000)).set(eq(KEY1), eq(VALUE2), any());
+    }
+
+    @Test
+    void freshNotRefreshed() {
+      when(remoteCache.get(KEY1)).thenReturn(completedFuture(VALUE1));
+      when(remoteCache.pttl(KEY1)).thenReturn(completedFuture(TTL.toMillis() - 100));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE1);
+
+      verify(remoteCache, after(200).never()).set(any(), any(), any());
+    }
+  }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class EarlyRefresh {
+
+    @BeforeEach
+    void setUp() {
+      cache =
+          new ProtobufRedisLoadingCache<>(
+              StringValue.getDefaultInstance(),
+              Int32Value.getDefaultInstance(),
+              // Large enough that any observed load time refreshes before expiration.
+              new RedisCacheOptions.Builder().redisTtl(TTL).earlyRefreshBeta(1e12).build(),
+              metrics,
+              remoteCache,
+              null,
+              null);
+    }
+
+    @Test
+    void refreshedNearExpiration() {
+      when(remoteCache.get(KEY1))
+          .thenReturn(CompletableFuture.completedFuture(null))
+          .thenReturn(completedFuture(VALUE1));
+      when(remoteCache.pttl(KEY1)).thenReturn(completedFuture(100L));
+      when(remoteCache.set(eq(KEY1), any(), any())).thenReturn(completedFuture("OK"));
+
+      // Populates the observed load time.
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(VALUE1);
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE1);
+
+      verify(remoteCache, timeout(1000)).set(eq(KEY1), eq(VALUE2), any());
+    }
+  }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class InvalidateLocalCaches {
+
+    private Consumer<StringValue> invalidationListener;
+
+    @BeforeEach
+    void setUp() {
+      cache =
+          new ProtobufRedisLoadingCache<>(
+              StringValue.getDefaultInstance(),
+              Int32Value.getDefaultInstance(),
+              new RedisCacheOptions.Builder()
+                  .redisTtl(TTL)
+                  .localCacheSpec(CaffeineSpec.parse("maximumSize=10"))
+                  .invalidateLocalCaches(true)
+                  .build(),
+              metrics,
+              remoteCache,
+              null,
+              invalidationChannel);
+
+      @SuppressWarnings("unchecked")
+      ArgumentCaptor<Consumer<StringValue>> listener = ArgumentCaptor.forClass(Consumer.class);
+      verify(invalidationChannel).subscribe(listener.capture());
+      invalidationListener = listener.getValue();
+    }
+
+    @Test
+    void deletePublishes() {
+      when(remoteCache.del(KEY1)).thenReturn(completedFuture(1L));
+      when(invalidationChannel.publish(KEY1)).thenReturn(completedFuture(2L));
+
+      assertThat(cache.deleteFromRedis(KEY1)).completesWithValue(true);
+
+      verify(invalidationChannel).publish(KEY1);
+    }
+
+    @Test
+    void invalidationEvictsLocal() {
+      when(remoteCache.get(KEY1))
+          .thenReturn(completedFuture(VALUE1))
+          .thenReturn(completedFuture(VALUE2));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(VALUE1);
+      // Served from local cache.
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(VALUE1);
+
+      invalidationListener.accept(KEY1);
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(VALUE2);
+    }
+  }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class LoadLeases {
+
+    @Mock private RemoteCache<StringValue, Int32Value> leases;
+
+    private final SimpleMeterRegistry leaseMeterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+      RedisCacheOptions options =
+          new RedisCacheOptions.Builder()
+              .redisTtl(TTL)
+              .loadLeaseDuration(Duration.ofMillis(200))
+              .loadLeasePollInterval(Duration.ofMillis(10))
+              .build();
+      cache =
+          new ProtobufRedisLoadingCache<>(
+              StringValue.getDefaultInstance(),
+              Int32Value.getDefaultInstance(),
+              options,
+              metrics,
+              remoteCache,
+              new LoadLease<>(
+                  leases,
+                  Int32Value.getDefaultInstance(),
+                  options,
+                  "test",
+                  leaseMeterRegistry),
+              null);
+    }
+
+    @Test
+    void acquiredLoadsAndReleases() {
+      when(remoteCache.get(KEY1)).thenReturn(CompletableFuture.completedFuture(null));
+      when(leases.set(eq(KEY1), any(), any())).thenReturn(completedFuture("OK"));
+      when(remoteCache.set(eq(KEY1), eq(VALUE1), any())).thenReturn(completedFuture("OK"));
+      when(leases.del(KEY1)).thenReturn(completedFuture(1L));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(VALUE1);
+
+      verify(leases, timeout(1000)).del(KEY1);
+    }
+
+    @Test
+    void heldWaitsForValue() {
+      when(remoteCache.get(KEY1))
+          .thenReturn(CompletableFuture.completedFuture(null))
+          .thenReturn(CompletableFuture.completedFuture(null))
+          .thenReturn(completedFuture(VALUE1));
+      when(leases.set(eq(KEY1), any(), any()))
+          .thenReturn(CompletableFuture.<String>completedFuture(null));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE1);
+
+      verify(remoteCache, never()).set(any(), any(), any());
+    }
+
+    @Test
+    void releasedWithoutValueTakesOver() {
+      when(remoteCache.get(KEY1)).thenReturn(CompletableFuture.completedFuture(null));
+      // Held by another server, which then releases it without writing a value.
+      when(leases.set(eq(KEY1), any(), any()))
+          .thenReturn(CompletableFuture.<String>completedFuture(null))
+          .thenReturn(CompletableFuture.<String>completedFuture(null))
+          .thenReturn(completedFuture("OK"));
+      when(remoteCache.set(eq(KEY1), eq(VALUE2), any())).thenReturn(completedFuture("OK"));
+      when(leases.del(KEY1)).thenReturn(completedFuture(1L));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE2);
+
+      verify(remoteCache, timeout(1000)).set(eq(KEY1), eq(VALUE2), any());
+      verify(leases, timeout(1000)).del(KEY1);
+      assertThat(
+              leaseMeterRegistry
+                  .get(RedisConstants.DEFAULT_METER_ID_PREFIX.name("loadLeaseFallbacks"))
+                  .counter()
+                  .count())
+          .isZero();
+    }
+
+    @Test
+    void heldPastLeaseDurationLoadsItself() {
+      when(remoteCache.get(KEY1)).thenReturn(CompletableFuture.completedFuture(null));
+      // Always held by another server, e.g. because other servers keep winning the lease.
+      when(leases.set(eq(KEY1), any(), any()))
+          .thenReturn(CompletableFuture.<String>completedFuture(null));
+      when(remoteCache.set(eq(KEY1), eq(VALUE2), any())).thenReturn(completedFuture("OK"));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE2)))
+          .completesWithValue(VALUE2);
+
+      verify(remoteCache, timeout(1000)).set(eq(KEY1), eq(VALUE2), any());
+      verify(leases, never()).del(KEY1);
+      assertThat(
+              leaseMeterRegistry
+                  .get(RedisConstants.DEFAULT_METER_ID_PREFIX.name("loadLeaseFallbacks"))
+                  .counter()
+                  .count())
+          .isEqualTo(1);
+    }
+  }
+
+  @SuppressWarnings("ClassCanBeStatic")
+  @Nested
+  class AbsentTtl {
+
+    private final Int32Value absent =
+        ProtobufRedisCodec.absentValue(Int32Value.getDefaultInstance());
+
+    @BeforeEach
+    void setUp() {
+      cache =
+          new ProtobufRedisLoadingCache<>(
+              StringValue.getDefaultInstance(),
+              Int32Value.getDefaultInstance(),
+              new RedisCacheOptions.Builder()
+                  .redisTtl(TTL)
+                  .absentTtl(Duration.ofMinutes(1))
+                  .localCacheSpec(CaffeineSpec.parse("maximumSize=10"))
+                  .build(),
+              metrics,
+              remoteCache,
+              null,
+              null);
+    }
+
+    @Test
+    void absentLoadCached() {
+      when(remoteCache.get(KEY1)).thenReturn(CompletableFuture.completedFuture(null));
+      when(remoteCache.set(eq(KEY1), same(absent), any())).thenReturn(completedFuture("OK"));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(null))).completesWithValue(null);
+      // Served from local cache.
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(null);
+
+      verify(remoteCache, timeout(1000)).set(eq(KEY1), same(absent), any());
+    }
+
+    @Test
+    void absentRemoteServed() {
+      when(remoteCache.get(KEY1)).thenReturn(completedFuture(absent));
+
+      assertThat(cache.get(KEY1, unused -> Futures.immediateFuture(VALUE1)))
+          .completesWithValue(null);
+
+      verify(remoteCache, after(200).never()).set(any(), any(), any());
+    }
+
+    @Test
+    void getAllCachesMissingKeys() {
+      when(remoteCache.mget(anyList()))
+          .thenReturn(
+              completedFuture(
+                  ImmutableList.of(
+                      KeyValue.just(KEY1, absent), KeyValue.empty(KEY2), KeyValue.empty(KEY3))));
+
+      assertThat(
+              cache.getAll(
+                  ImmutableList.of(KEY1, KEY2, KEY3),
+                  unused -> Futures.immediateFuture(ImmutableMap.of(KEY2, VALUE2))))
+          .completesWithValue(ImmutableMap.of(KEY2, VALUE2));
+
+      verify(remoteCache, timeout(1000)).setAll(eq(ImmutableMap.of(KEY2, VALUE2)), any());
+      verify(remoteCache, timeout(1000)).setAll(eq(ImmutableMap.of(KEY3, absent)), any());
+    }
+  }
 }
@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.StringValue;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.pubsub.RedisPubSubListener;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.pubsub.api.async.RedisPubSubAsyncCommands;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+class RedisInvalidationChannelTest {
+
+  private static final String CHANNEL = "test:invalidations";
+
+  private static final StringValue KEY1 = StringValue.newBuilder().setValue("key1").build();
+  private static final StringValue KEY2 = StringValue.newBuilder().setValue("key2").build();
+
+  @Mock private RedisClusterAsyncCommands<String, byte[]> publisher;
+  @Mock private StatefulRedisPubSubConnection<String, byte[]> subscriber;
+  @Mock private RedisPubSubAsyncCommands<String, byte[]> subscriberCommands;
+  @Mock private RedisFuture<Void> subscribed;
+  @Mock private RedisFuture<Long> published;
+
+  private final List<StringValue> received = new ArrayList<>();
+
+  private RedisInvalidationChannel<StringValue> channel;
+  private RedisPubSubListener<String, byte[]> listener;
+
+  @BeforeEach
+  void setUp() {
+    received.clear();
+    when(subscriber.async()).thenReturn(subscriberCommands);
+    when(subscriberCommands.subscribe(CHANNEL)).thenReturn(subscribed);
+
+    channel = newChannel();
+    channel.subscribe(received::add);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<RedisPubSubListener<String, byte[]>> captor =
+        ArgumentCaptor.forClass(RedisPubSubListener.class);
+    verify(subscriber).addListener(captor.capture());
+    listener = captor.getValue();
+  }
+
+  @Test
+  void ignoresOwnInvalidations() {
+    when(publisher.publish(eq(CHANNEL), any())).thenReturn(published);
+    RedisInvalidationChannel<StringValue> otherServer = newChannel();
+
+    assertThat(channel.publish(KEY1)).isSameAs(published);
+    assertThat(otherServer.publish(KEY2)).isSameAs(published);
+
+    ArgumentCaptor<byte[]> messages = ArgumentCaptor.forClass(byte[].class);
+    verify(publisher, times(2)).publish(eq(CHANNEL), messages.capture());
+    for (byte[] message : messages.getAllValues()) {
+      listener.message(CHANNEL, message);
+    }
+
+    assertThat(received).containsExactly(KEY2);
+  }
+
+  @Test
+  void ignoresOtherChannelsAndInvalidMessages() {
+    listener.message("other:invalidations", new byte[20]);
+    listener.message(CHANNEL, new byte[3]);
+
+    assertThat(received).isEmpty();
+  }
+
+  private RedisInvalidationChannel<StringValue> newChannel() {
+    return new RedisInvalidationChannel<>(
+        CHANNEL, StringValue.getDefaultInstance(), publisher, subscriber);
+  }
+}
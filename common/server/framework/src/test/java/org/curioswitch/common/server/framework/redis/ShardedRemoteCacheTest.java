@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.SetArgs;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ShardedRemoteCacheTest {
+
+  private static final SetArgs SET_ARGS = SetArgs.Builder.px(1000);
+
+  private final List<NoopRemoteCache<String, String>> shards =
+      ImmutableList.of(new NoopRemoteCache<>(), new NoopRemoteCache<>(), new NoopRemoteCache<>());
+
+  private final ShardedRemoteCache<String, String> cache =
+      new ShardedRemoteCache<>(ImmutableList.<RemoteCache<String, String>>copyOf(shards));
+
+  @Test
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void routesByKey() {
+    List<String> keys =
+        IntStream.range(0, 100).mapToObj(i -> "key" + i).collect(Collectors.toList());
+    for (String key : keys) {
+      cache.set(key, "value-" + key, SET_ARGS);
+    }
+
+    for (String key : keys) {
+      assertThat(cache.get(key).toCompletableFuture()).isCompletedWithValue("value-" + key);
+      // Each key is only written to a single shard.
+      assertThat(
+              shards.stream()
+                  .filter(shard -> shard.pttl(key).toCompletableFuture().join() == -1)
+                  .count())
+          .isEqualTo(1);
+    }
+  }
+
+  @Test
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void mgetKeepsOrder() {
+    cache.setAll(ImmutableMap.of("key1", "value1", "key2", "value2", "key3", "value3"), SET_ARGS);
+
+    assertThat(
+            cache.mget(ImmutableList.of("key3", "missing", "key1", "key2")).toCompletableFuture())
+        .isCompletedWithValue(
+            ImmutableList.of(
+                KeyValue.just("key3", "value3"),
+                KeyValue.empty("missing"),
+                KeyValue.just("key1", "value1"),
+                KeyValue.just("key2", "value2")));
+  }
+}
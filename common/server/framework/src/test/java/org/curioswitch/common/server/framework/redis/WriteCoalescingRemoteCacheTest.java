@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Choko (choko@curioswitch.org)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.curioswitch.common.server.framework.redis;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+class WriteCoalescingRemoteCacheTest {
+
+  private static final SetArgs SET_ARGS = SetArgs.Builder.px(1000);
+
+  @Mock private RemoteCache<String, String> delegate;
+  @Mock private RemoteCache<String, String> writer;
+
+  private SimpleMeterRegistry meterRegistry;
+  private WriteCoalescingRemoteCache<String, String> cache;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    // A long window so only the batch size triggers flushes.
+    cache =
+        new WriteCoalescingRemoteCache<>(
+            delegate, writer, Duration.ofHours(1), 2, "test", meterRegistry);
+  }
+
+  @Test
+  void coalescesAndFlushesBatch() {
+    when(writer.setAll(ImmutableMap.of("key1", "value2", "key2", "value3"), SET_ARGS))
+        .thenReturn(completedFuture(null));
+
+    CompletableFuture<String> first = cache.set("key1", "value1", SET_ARGS).toCompletableFuture();
+    CompletableFuture<String> second = cache.set("key1", "value2", SET_ARGS).toCompletableFuture();
+    assertThat(first).isNotDone();
+    assertThat(meterRegistry.get("redis.writeQueueDepth").gauge().value()).isEqualTo(1);
+
+    CompletableFuture<String> third = cache.set("key2", "value3", SET_ARGS).toCompletableFuture();
+
+    assertThat(first).isCompletedWithValue("OK");
+    assertThat(second).isCompletedWithValue("OK");
+    assertThat(third).isCompletedWithValue("OK");
+    assertThat(meterRegistry.get("redis.coalescedWrites").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("redis.writeFlushSize").summary().totalAmount()).isEqualTo(2);
+  }
+
+  @Test
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void readsBufferedWrite() {
+    cache.set("key1", "value1", SET_ARGS);
+
+    assertThat(cache.get("key1").toCompletableFuture()).isCompletedWithValue("value1");
+    verify(delegate, never()).get(any());
+  }
+
+  @Test
+  void deleteDropsBufferedWrite() {
+    when(writer.del("key1")).thenReturn(completedFuture(1L));
+
+    CompletableFuture<String> write = cache.set("key1", "value1", SET_ARGS).toCompletableFuture();
+    assertThat(cache.del("key1").toCompletableFuture()).isCompletedWithValue(1L);
+
+    assertThat(write).isCompletedWithValue("OK");
+    verify(writer, never()).setAll(any(), eq(SET_ARGS));
+  }
+
+  @Test
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void readsInFlightWrite() {
+    CompletableFuture<Void> written = new CompletableFuture<>();
+    when(writer.setAll(ImmutableMap.of("key1", "value1", "key2", "value2"), SET_ARGS))
+        .thenReturn(written);
+    when(delegate.get("key1")).thenReturn(completedFuture("value1"));
+
+    cache.set("key1", "value1", SET_ARGS);
+    cache.set("key2", "value2", SET_ARGS);
+
+    assertThat(cache.get("key1").toCompletableFuture()).isCompletedWithValue("value1");
+    verify(delegate, never()).get(any());
+
+    written.complete(null);
+    assertThat(cache.get("key1").toCompletableFuture()).isCompletedWithValue("value1");
+    verify(delegate).get("key1");
+  }
+
+  @Test
+  @SuppressWarnings("FutureReturnValueIgnored")
+  void deleteDuringFlushIsIssuedAfterWrite() throws Exception {
+    List<String> commands = new CopyOnWriteArrayList<>();
+    CountDownLatch writing = new CountDownLatch(1);
+    when(writer.setAll(ImmutableMap.of("key1", "value1", "key2", "value2"), SET_ARGS))
+        .thenAnswer(
+            invocation -> {
+              writing.countDown();
+              // Give the concurrent delete a chance to overtake the write if it could.
+              Thread.sleep(100);
+              commands.add("set");
+              return completedFuture(null);
+            });
+    when(writer.del("key1"))
+        .thenAnswer(
+            invocation -> {
+              commands.add("del");
+              return completedFuture(1L);
+            });
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> delete =
+          executor.submit(
+              () -> {
+                writing.await();
+                return cache.del("key1");
+              });
+
+      cache.set("key1", "value1", SET_ARGS);
+      cache.set("key2", "value2", SET_ARGS);
+      delete.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(commands).containsExactly("set", "del");
+  }
+}
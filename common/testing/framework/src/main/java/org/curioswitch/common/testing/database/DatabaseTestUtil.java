@@ -72,7 +72,7 @@ public final class DatabaseTestUtil {
   public static DSLContext newDbContext(MockDataProvider dataProvider) {
     MockConnection connection = new MockConnection(dataProvider);
     DSLContext db = DSL.using(connection, SQLDialect.MYSQL);
-    db.configuration().set(DatabaseUtil.sfmRecordMapperProvider());
+    db.configuration().set(DatabaseUtil.recordMapperProvider());
     db.settings().setRenderSchema(false);
     return db;
   }
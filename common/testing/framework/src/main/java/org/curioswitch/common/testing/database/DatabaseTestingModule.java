@@ -26,11 +26,14 @@ package org.curioswitch.common.testing.database;
 
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
 import dagger.producers.Production;
 import java.util.concurrent.Executor;
 import org.curioswitch.common.server.framework.database.ForDatabase;
+import org.curioswitch.common.server.framework.database.ForReadReplica;
+import org.curioswitch.common.server.framework.database.QueryResultCache;
 import org.jooq.DSLContext;
 import org.jooq.tools.jdbc.MockDataProvider;
 
@@ -54,5 +57,14 @@ public abstract class DatabaseTestingModule {
     return DatabaseTestUtil.newDbContext(dataProvider);
   }
 
+  @Provides
+  static QueryResultCache queryResultCache() {
+    return QueryResultCache.disabled();
+  }
+
+  @Binds
+  @ForReadReplica
+  abstract DSLContext readReplicaDb(DSLContext db);
+
   private DatabaseTestingModule() {}
 }
@@ -42,6 +42,7 @@ include(":common:google-cloud:maps-services")
 include(":common:google-cloud:pubsub")
 include(":common:google-cloud:trace")
 include(":common:server:framework")
+include(":common:server:framework-processor")
 include(":common:testing:assertj-protobuf")
 include(":common:testing:framework")
 include(":common:web:base-web")
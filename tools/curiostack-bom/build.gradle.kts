@@ -140,6 +140,11 @@ val DEPENDENCY_SETS = listOf(
                 "3.17.3",
                 listOf("protoc")
         ),
+        DependencySet(
+                "com.google.testing.compile",
+                "0.19",
+                listOf("compile-testing")
+        ),
         DependencySet(
                 "com.spotify",
                 "4.3.1",
@@ -300,6 +305,11 @@ val DEPENDENCY_SETS = listOf(
                 "3.14.9",
                 listOf("jooq", "jooq-codegen", "jooq-meta")
         ),
+        DependencySet(
+                "org.lz4",
+                "1.8.0",
+                listOf("lz4-java")
+        ),
         DependencySet(
                 "org.mockito",
                 "4.4.0",